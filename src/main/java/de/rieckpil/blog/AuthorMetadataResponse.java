@@ -0,0 +1,7 @@
+package de.rieckpil.blog;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/** An author as OpenLibrary returns it for {@code /authors/{id}.json}, e.g. {@code OL5851148A}. */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record AuthorMetadataResponse(String key, String name) {}
@@ -3,6 +3,7 @@ package de.rieckpil.blog;
 import java.time.LocalDate;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
@@ -10,17 +11,29 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 
 /** Entity representing a book in the library system. */
 @Entity
 @Table(name = "books")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "books")
+@NaturalIdCache(region = "books-natural-id")
 public class Book {
 
+  // Sequence with pooled allocation, IDENTITY would disable JDBC batch inserts
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "books_id_seq")
+  @SequenceGenerator(name = "books_id_seq", sequenceName = "books_id_seq", allocationSize = 50)
   private Long id;
 
+  @NaturalId
   @Column(nullable = false, unique = true)
   private String isbn;
 
@@ -43,6 +56,12 @@ public class Book {
   @Column(nullable = false)
   private BookStatus status = BookStatus.AVAILABLE;
 
+  // Exposed as ETag header instead of being part of the JSON body
+  @JsonIgnore
+  @Version
+  @Column(nullable = false)
+  private Long version;
+
   // Default constructor for JPA
   public Book() {}
 
@@ -163,4 +182,12 @@ public class Book {
         + status
         + '}';
   }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
 }
@@ -1,6 +1,10 @@
 package de.rieckpil.blog;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
 /** Exception thrown when attempting to create a book that already exists. */
+@ResponseStatus(HttpStatus.CONFLICT)
 public class BookAlreadyExistsException extends RuntimeException {
 
   public BookAlreadyExistsException(String isbn) {
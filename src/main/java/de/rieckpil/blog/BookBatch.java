@@ -0,0 +1,12 @@
+package de.rieckpil.blog;
+
+import java.util.List;
+
+/**
+ * Books read by id and ISBN in one request.
+ *
+ * @param books the books found, in the order they were requested
+ * @param missingIds the requested ids without a book
+ * @param missingIsbns the requested ISBNs without a book
+ */
+public record BookBatch(List<Book> books, List<Long> missingIds, List<String> missingIsbns) {}
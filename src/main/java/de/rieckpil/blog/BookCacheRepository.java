@@ -0,0 +1,24 @@
+package de.rieckpil.blog;
+
+import java.util.Optional;
+
+/** Repository fragment for reads and evictions that go through Hibernate's second-level cache. */
+public interface BookCacheRepository {
+
+  /**
+   * Find a book by its ISBN. The ISBN is the natural id of a book, so both the ISBN to id
+   * resolution and the book itself are served from the second-level cache when present.
+   *
+   * @param isbn the ISBN to search for
+   * @return the book with the given ISBN, if found
+   */
+  Optional<Book> findByIsbn(String isbn);
+
+  /**
+   * Removes a book from the second-level cache. Needed after native writes, which Hibernate cannot
+   * relate to cached entities.
+   *
+   * @param id the id of the book to evict
+   */
+  void evictFromCache(Long id);
+}
@@ -0,0 +1,28 @@
+package de.rieckpil.blog;
+
+import java.util.Optional;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
+class BookCacheRepositoryImpl implements BookCacheRepository {
+
+  private final EntityManager entityManager;
+
+  BookCacheRepositoryImpl(EntityManager entityManager) {
+    this.entityManager = entityManager;
+  }
+
+  // the transaction keeps the unwrapped session open for the lookup
+  @Override
+  @Transactional(readOnly = true)
+  public Optional<Book> findByIsbn(String isbn) {
+    return entityManager.unwrap(Session.class).bySimpleNaturalId(Book.class).loadOptional(isbn);
+  }
+
+  @Override
+  public void evictFromCache(Long id) {
+    entityManager.getEntityManagerFactory().getCache().evict(Book.class, id);
+  }
+}
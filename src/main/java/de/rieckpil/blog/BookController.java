@@ -1,8 +1,17 @@
 package de.rieckpil.blog;
 
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ETag;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -10,7 +19,9 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -25,15 +36,74 @@ public class BookController {
   }
 
   @GetMapping
-  public List<Book> getAllBooks() {
-    return bookService.getAllBooks();
+  public BookPage getBooks(
+      @RequestParam(defaultValue = "id") String sort,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "50") @Min(1) @Max(500) int size,
+      @RequestParam(defaultValue = "false") boolean includeTotal) {
+    return bookService.getBooks(BookSortField.fromProperty(sort), cursor, size, includeTotal);
   }
 
+  /**
+   * Books matching all given criteria, ordered by published date and paginated with the {@code
+   * next} cursor of the previous page.
+   */
+  @GetMapping("/filter")
+  public BookPage filterBooks(
+      @RequestParam(required = false) BookStatus status,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate publishedFrom,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate publishedTo,
+      @RequestParam(required = false) String authorPrefix,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "50") @Min(1) @Max(500) int size) {
+    return bookService.getFilteredBooks(
+        new BookFilter(status, publishedFrom, publishedTo, authorPrefix), cursor, size);
+  }
+
+  @GetMapping("/search/title")
+  public List<BookSummary> searchBooksByTitle(
+      @RequestParam @NotBlank String q,
+      @RequestParam(defaultValue = "0") @Min(0) int page,
+      @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size) {
+    return bookService.searchBooksByTitle(q, page, size);
+  }
+
+  @GetMapping("/search/author")
+  public List<BookSummary> searchBooksByAuthor(
+      @RequestParam @NotBlank String q,
+      @RequestParam(defaultValue = "false") boolean fuzzy,
+      @RequestParam(defaultValue = "20") @Min(1) @Max(100) int limit) {
+    return bookService.searchBooksByAuthor(q, fuzzy, limit);
+  }
+
+  /**
+   * Reads many books at once, e.g. all books of a shelf, instead of one request per book. Ids and
+   * ISBNs without a book are listed separately.
+   */
+  @GetMapping("/batch")
+  public BookBatch getBooksBatch(
+      @RequestParam(defaultValue = "") @Size(max = BookService.MAX_BATCH_SIZE) List<Long> ids,
+      @RequestParam(defaultValue = "") @Size(max = BookService.MAX_BATCH_SIZE) List<String> isbns) {
+    return bookService.getBooks(ids, isbns);
+  }
+
+  /** Number of books per status, served from counters instead of scanning the catalog. */
+  @GetMapping("/statistics/status")
+  public Map<BookStatus, Long> getStatusCounts() {
+    return bookService.getStatusCounts();
+  }
+
+  /**
+   * Returns the book with its version as strong ETag. Spring MVC answers a matching {@code
+   * If-None-Match} with 304 Not Modified before the book is serialized.
+   */
   @GetMapping("/{id}")
   public ResponseEntity<Book> getBookById(@PathVariable Long id) {
     return bookService
         .getBookById(id)
-        .map(ResponseEntity::ok)
+        .map(book -> ResponseEntity.ok().eTag(eTagOf(book)).body(book))
         .orElse(ResponseEntity.notFound().build());
   }
 
@@ -47,13 +117,27 @@ public class BookController {
         .build();
   }
 
+  /**
+   * Updates the book, conditionally if the client sends the ETag it read as {@code If-Match}. A
+   * stale ETag is rejected with 412 Precondition Failed instead of overwriting a concurrent change.
+   * Any {@code If-Match}, {@code *} included, fails the same way for a book that does not exist, as
+   * there is no current representation to match.
+   */
   @PutMapping("/{id}")
   public ResponseEntity<Book> updateBook(
-      @PathVariable Long id, @Valid @RequestBody BookUpdateRequest request) {
+      @PathVariable Long id,
+      @Valid @RequestBody BookUpdateRequest request,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
     return bookService
-        .updateBook(id, request)
-        .map(ResponseEntity::ok)
-        .orElse(ResponseEntity.notFound().build());
+        .updateBook(id, request, expectedVersion(id, ifMatch))
+        .map(book -> ResponseEntity.ok().eTag(eTagOf(book)).body(book))
+        .orElseGet(
+            () -> {
+              if (ifMatch != null) {
+                throw new BookVersionMismatchException(id);
+              }
+              return ResponseEntity.notFound().build();
+            });
   }
 
   @DeleteMapping("/{id}")
@@ -62,4 +146,32 @@ public class BookController {
         ? ResponseEntity.noContent().build()
         : ResponseEntity.notFound().build();
   }
+
+  private static String eTagOf(Book book) {
+    return ETag.quoteETagIfNecessary(String.valueOf(book.getVersion()));
+  }
+
+  /**
+   * @return the version a single strong ETag stands for, {@code null} without precondition or for
+   *     {@code *}
+   */
+  private static Long expectedVersion(Long id, String ifMatch) {
+    if (ifMatch == null) {
+      return null;
+    }
+
+    List<ETag> eTags = ETag.parse(ifMatch);
+    if (eTags.size() == 1 && eTags.getFirst().isWildcard()) {
+      return null;
+    }
+    // weak ETags never match for If-Match, and we only issue plain version numbers
+    if (eTags.size() != 1 || eTags.getFirst().weak()) {
+      throw new BookVersionMismatchException(id);
+    }
+    try {
+      return Long.valueOf(eTags.getFirst().tag());
+    } catch (NumberFormatException e) {
+      throw new BookVersionMismatchException(id);
+    }
+  }
 }
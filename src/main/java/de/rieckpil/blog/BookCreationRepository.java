@@ -0,0 +1,19 @@
+package de.rieckpil.blog;
+
+import java.time.LocalDate;
+import java.util.Optional;
+
+/** Repository fragment for creating books with ids from Hibernate's pooled generator. */
+public interface BookCreationRepository {
+
+  /**
+   * PostgreSQL-specific: Inserts a book unless one with the same ISBN exists, and queues its
+   * enrichment with OpenLibrary metadata for the {@link BookEnrichmentWorker}, in a single
+   * statement. The unique constraint decides, so concurrent inserts of the same ISBN cannot both
+   * succeed.
+   *
+   * @return the id of the inserted book, empty if the ISBN was already taken
+   */
+  Optional<Long> insertIfIsbnAbsent(
+      String isbn, String title, String author, LocalDate publishedDate);
+}
@@ -0,0 +1,67 @@
+package de.rieckpil.blog;
+
+import java.time.LocalDate;
+import java.util.Optional;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.springframework.transaction.annotation.Transactional;
+
+class BookCreationRepositoryImpl implements BookCreationRepository {
+
+  private static final String INSERT_IF_ISBN_ABSENT =
+      """
+      WITH book AS (
+        INSERT INTO books (id, isbn, title, author, published_date, status)
+        VALUES (:id, :isbn, :title, :author, :publishedDate, 'AVAILABLE')
+        ON CONFLICT (isbn) DO NOTHING
+        RETURNING id, isbn, author),
+      job AS (
+        INSERT INTO book_enrichment_jobs (book_id, isbn, original_author)
+        SELECT id, isbn, author FROM book)
+      SELECT id FROM book
+      """;
+
+  private final EntityManager entityManager;
+
+  BookCreationRepositoryImpl(EntityManager entityManager) {
+    this.entityManager = entityManager;
+  }
+
+  /**
+   * The id comes from the same pooled generator Hibernate uses for {@link Book}, which takes a
+   * block of 50 ids from {@code books_id_seq} at a time. The column default would take a whole
+   * block for every insert. An insert that loses to an existing ISBN leaves its id unused.
+   */
+  @Override
+  @Transactional
+  public Optional<Long> insertIfIsbnAbsent(
+      String isbn, String title, String author, LocalDate publishedDate) {
+    return entityManager
+        .unwrap(Session.class)
+        .createNativeQuery(INSERT_IF_ISBN_ABSENT, Long.class)
+        .setParameter("id", nextId())
+        .setParameter("isbn", isbn)
+        .setParameter("title", title)
+        .setParameter("author", author)
+        .setParameter("publishedDate", publishedDate)
+        .getResultStream()
+        .findFirst();
+  }
+
+  private Long nextId() {
+    SharedSessionContractImplementor session =
+        entityManager.unwrap(SharedSessionContractImplementor.class);
+    BeforeExecutionGenerator generator =
+        (BeforeExecutionGenerator)
+            session
+                .getFactory()
+                .getMappingMetamodel()
+                .getEntityDescriptor(Book.class)
+                .getGenerator();
+    return (Long) generator.generate(session, null, null, EventType.INSERT);
+  }
+}
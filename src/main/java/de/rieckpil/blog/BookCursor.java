@@ -0,0 +1,53 @@
+package de.rieckpil.blog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque cursor for the keyset-paginated book listing. It carries the sort property together with
+ * the keys of the last book on a page, Base64 (URL-safe) encoded so clients treat it as a token.
+ *
+ * @param sortField the sort the cursor was issued for
+ * @param id the id of the last book on the page
+ * @param value the sort column value of the last book, equal to the id when sorting by id
+ */
+record BookCursor(BookSortField sortField, Long id, Object value) {
+
+  private static final String SEPARATOR = "\n";
+
+  static BookCursor after(BookSortField sortField, BookSummary book) {
+    return new BookCursor(sortField, book.id(), sortField.valueOf(book));
+  }
+
+  String encode() {
+    String raw = sortField.getProperty() + SEPARATOR + id + SEPARATOR + value;
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return the decoded cursor or {@code null} when no cursor was given, i.e. the first page
+   */
+  static BookCursor decode(BookSortField sortField, String cursor) {
+    if (cursor == null || cursor.isBlank()) {
+      return null;
+    }
+
+    String raw;
+    try {
+      raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidPageRequestException("Invalid cursor");
+    }
+
+    String[] parts = raw.split(SEPARATOR, 3);
+    if (parts.length != 3 || !sortField.getProperty().equals(parts[0])) {
+      throw new InvalidPageRequestException(
+          "Cursor does not match sort property " + sortField.getProperty());
+    }
+
+    Long id = (Long) BookSortField.ID.parseValue(parts[1]);
+    return new BookCursor(sortField, id, sortField.parseValue(parts[2]));
+  }
+}
@@ -0,0 +1,69 @@
+package de.rieckpil.blog;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import org.hibernate.annotations.Immutable;
+
+/**
+ * A book waiting in the outbox for its OpenLibrary metadata, see {@link BookEnrichmentWorker}. Jobs
+ * are only written by native statements of the {@link BookEnrichmentJobRepository}.
+ */
+@Entity
+@Table(name = "book_enrichment_jobs")
+@Immutable
+public class BookEnrichmentJob {
+
+  @Id private Long id;
+
+  @Column(nullable = false)
+  private Long bookId;
+
+  @Column(nullable = false)
+  private String isbn;
+
+  // Including the running one once the job is leased
+  @Column(nullable = false)
+  private int attempts;
+
+  @Column(nullable = false)
+  private Instant nextAttemptAt;
+
+  @Column private String lastError;
+
+  @Column private Instant deadLetteredAt;
+
+  // Default constructor for JPA
+  protected BookEnrichmentJob() {}
+
+  public Long getId() {
+    return id;
+  }
+
+  public Long getBookId() {
+    return bookId;
+  }
+
+  public String getIsbn() {
+    return isbn;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public Instant getNextAttemptAt() {
+    return nextAttemptAt;
+  }
+
+  public String getLastError() {
+    return lastError;
+  }
+
+  public Instant getDeadLetteredAt() {
+    return deadLetteredAt;
+  }
+}
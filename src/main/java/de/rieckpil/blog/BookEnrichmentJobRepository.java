@@ -0,0 +1,108 @@
+package de.rieckpil.blog;
+
+import java.util.List;
+import java.util.Optional;
+
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface BookEnrichmentJobRepository extends JpaRepository<BookEnrichmentJob, Long> {
+
+  /**
+   * PostgreSQL-specific: Leases the jobs due longest and counts the attempt. SKIP LOCKED lets
+   * concurrent workers lease disjoint jobs, and the lease moves a job's next attempt past the
+   * lookup instead of holding its row lock, so no connection is held while OpenLibrary answers.
+   *
+   * @param leaseSeconds how long the jobs are not due again, longer than a lookup may take
+   * @return the leased jobs, at most {@code limit}
+   */
+  @Transactional
+  @Query(
+      value =
+          """
+    UPDATE book_enrichment_jobs
+    SET attempts = attempts + 1, next_attempt_at = now() + make_interval(secs => :leaseSeconds)
+    WHERE id IN (
+      SELECT id FROM book_enrichment_jobs
+      WHERE dead_lettered_at IS NULL AND next_attempt_at <= now()
+      ORDER BY next_attempt_at
+      LIMIT :limit
+      FOR UPDATE SKIP LOCKED)
+    RETURNING *
+    """,
+      nativeQuery = true)
+  List<BookEnrichmentJob> lease(
+      @Param("limit") int limit, @Param("leaseSeconds") long leaseSeconds);
+
+  /**
+   * PostgreSQL-specific: Removes the job and fills in the book's missing thumbnail and description
+   * in the same statement. A job whose lease ran out while its first worker was still looking it up
+   * is only completed once.
+   *
+   * @param author replaces the book's author, unless it changed since the book was created, e.g.
+   *     corrected by an update while the job waited for a retry; {@code null} keeps it
+   * @return the id of the enriched book, empty if the job was already completed or the book deleted
+   */
+  @Transactional
+  @Query(
+      value =
+          """
+    WITH job AS (DELETE FROM book_enrichment_jobs WHERE id = :id RETURNING book_id, original_author)
+    UPDATE books
+    SET thumbnail_url = COALESCE(thumbnail_url, CAST(:thumbnailUrl AS VARCHAR)),
+        description = COALESCE(description, CAST(:description AS TEXT)),
+        author = CASE WHEN books.author = job.original_author
+                      THEN COALESCE(CAST(:author AS VARCHAR), books.author)
+                      ELSE books.author END,
+        version = version + 1
+    FROM job
+    WHERE books.id = job.book_id
+    RETURNING books.id
+    """,
+      nativeQuery = true)
+  Optional<Long> complete(
+      @Param("id") Long id,
+      @Param("thumbnailUrl") String thumbnailUrl,
+      @Param("description") String description,
+      @Param("author") String author);
+
+  /**
+   * Schedules the next attempt of a failed job. Like {@link #deadLetter} it declares the only table
+   * it writes, Hibernate would otherwise clear the whole second-level cache for it.
+   */
+  @Transactional
+  @Modifying
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "book_enrichment_jobs"))
+  @Query(
+      value =
+          """
+    UPDATE book_enrichment_jobs
+    SET next_attempt_at = now() + make_interval(secs => :delaySeconds), last_error = :error
+    WHERE id = :id
+    """,
+      nativeQuery = true)
+  void retryLater(
+      @Param("id") Long id,
+      @Param("delaySeconds") double delaySeconds,
+      @Param("error") String error);
+
+  /** Gives up on a job, it stays in the table for inspection but is no longer leased. */
+  @Transactional
+  @Modifying
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "book_enrichment_jobs"))
+  @Query(
+      value =
+          """
+    UPDATE book_enrichment_jobs
+    SET dead_lettered_at = now(), last_error = :error
+    WHERE id = :id
+    """,
+      nativeQuery = true)
+  void deadLetter(@Param("id") Long id, @Param("error") String error);
+}
@@ -0,0 +1,194 @@
+package de.rieckpil.blog;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+/**
+ * Drains the {@code book_enrichment_jobs} outbox that {@link BookRepository#insertIfIsbnAbsent}
+ * fills, looking up each book at OpenLibrary and filling in its thumbnail and description. Every
+ * poll leases up to {@code concurrency} due jobs, looks up their ISBNs with one bibkeys request,
+ * which fills the {@link BookMetadataCache} the jobs then answer from, and runs them in parallel.
+ * It polls again right away as long as it finds a full batch. Several instances may poll the same
+ * table.
+ *
+ * <p>The book's author is replaced by the names of the edition's authors as OpenLibrary spells
+ * them, but only if all of them resolve and fit the column, a partial list would drop co-authors,
+ * and only if nobody changed the author since the book was created. Authors that fail to resolve
+ * keep the book's author, the job still completes with the edition's fields.
+ *
+ * <p>An ISBN unknown to OpenLibrary completes its job without changes. Other failures are retried
+ * with exponential backoff and jitter, and after {@code max-attempts} the job is dead-lettered.
+ * Jobs are counted as {@code book.enrichment.jobs} by their outcome.
+ */
+@Component
+public class BookEnrichmentWorker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BookEnrichmentWorker.class);
+
+  /** Length of the {@code books.author} column. */
+  private static final int MAX_AUTHOR_LENGTH = 255;
+
+  private final BookEnrichmentJobRepository jobRepository;
+  private final BookRepository bookRepository;
+  private final BookSearchCache bookSearchCache;
+  private final StaleReadGuard staleReadGuard;
+  private final OpenLibraryApiClient openLibraryApiClient;
+  private final int concurrency;
+  private final Duration lease;
+  private final Duration initialBackoff;
+  private final Duration maxBackoff;
+  private final int maxAttempts;
+  private final Counter enriched;
+  private final Counter notFound;
+  private final Counter retried;
+  private final Counter deadLettered;
+
+  /**
+   * @param lease how long a leased job is not due again, must exceed the client's timeouts
+   * @param initialBackoff delay before the second attempt, doubled for every further one
+   * @param maxAttempts attempts after which a failing job is dead-lettered
+   */
+  public BookEnrichmentWorker(
+      BookEnrichmentJobRepository jobRepository,
+      BookRepository bookRepository,
+      BookSearchCache bookSearchCache,
+      StaleReadGuard staleReadGuard,
+      OpenLibraryApiClient openLibraryApiClient,
+      MeterRegistry meterRegistry,
+      @Value("${book.enrichment.concurrency:8}") int concurrency,
+      @Value("${book.enrichment.lease:1m}") Duration lease,
+      @Value("${book.enrichment.initial-backoff:10s}") Duration initialBackoff,
+      @Value("${book.enrichment.max-backoff:1h}") Duration maxBackoff,
+      @Value("${book.enrichment.max-attempts:10}") int maxAttempts) {
+    this.jobRepository = jobRepository;
+    this.bookRepository = bookRepository;
+    this.bookSearchCache = bookSearchCache;
+    this.staleReadGuard = staleReadGuard;
+    this.openLibraryApiClient = openLibraryApiClient;
+    this.concurrency = concurrency;
+    this.lease = lease;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff = maxBackoff;
+    this.maxAttempts = maxAttempts;
+    this.enriched = jobCounter("enriched", meterRegistry);
+    this.notFound = jobCounter("not_found", meterRegistry);
+    this.retried = jobCounter("retried", meterRegistry);
+    this.deadLettered = jobCounter("dead_lettered", meterRegistry);
+  }
+
+  @Scheduled(fixedDelayString = "${book.enrichment.poll-interval:1s}")
+  public void drainOutbox() {
+    List<BookEnrichmentJob> jobs;
+    do {
+      jobs = jobRepository.lease(concurrency, lease.toSeconds());
+      prefetch(jobs);
+      // closing waits for the batch, which bounds the lookups in flight by the batch size
+      try (ExecutorService batch = Executors.newVirtualThreadPerTaskExecutor()) {
+        jobs.forEach(job -> batch.execute(() -> enrich(job)));
+      }
+    } while (jobs.size() == concurrency);
+  }
+
+  /**
+   * If the batch lookup fails, each job looks up its ISBN on its own and is retried on its own, so
+   * one failing chunk does not fail the others.
+   */
+  private void prefetch(List<BookEnrichmentJob> jobs) {
+    if (jobs.size() < 2) {
+      return;
+    }
+    try {
+      openLibraryApiClient.getBooksByIsbns(jobs.stream().map(BookEnrichmentJob::getIsbn).toList());
+    } catch (RuntimeException e) {
+      LOG.debug("Looking up {} ISBNs at once failed: {}", jobs.size(), e.toString());
+    }
+  }
+
+  private void enrich(BookEnrichmentJob job) {
+    try {
+      BookMetadataResponse metadata = openLibraryApiClient.getBookByIsbn(job.getIsbn());
+      String author = authorNames(metadata);
+      jobRepository
+          .complete(job.getId(), metadata.getCoverUrl(), metadata.description(), author)
+          .ifPresent(
+              bookId -> {
+                staleReadGuard.recordWrite();
+                bookRepository.evictFromCache(bookId);
+                bookSearchCache.evictAll();
+              });
+      enriched.increment();
+    } catch (WebClientResponseException.NotFound e) {
+      jobRepository.deleteById(job.getId());
+      notFound.increment();
+    } catch (RuntimeException e) {
+      String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+      if (job.getAttempts() >= maxAttempts) {
+        jobRepository.deadLetter(job.getId(), error);
+        deadLettered.increment();
+        LOG.warn(
+            "Giving up enriching book {} after {} attempts: {}",
+            job.getBookId(),
+            job.getAttempts(),
+            error);
+      } else {
+        jobRepository.retryLater(job.getId(), backoff(job.getAttempts()), error);
+        retried.increment();
+      }
+    }
+  }
+
+  /**
+   * @return the authors' names, {@code null} to keep the book's author
+   */
+  private String authorNames(BookMetadataResponse metadata) {
+    long authorCount = metadata.getAuthorKeys().stream().distinct().count();
+    if (authorCount == 0) {
+      return null;
+    }
+    List<AuthorMetadataResponse> authors;
+    try {
+      authors = openLibraryApiClient.getAuthors(metadata);
+    } catch (RuntimeException e) {
+      LOG.debug(
+          "Keeping the author, resolving {} failed: {}", metadata.getAuthorKeys(), e.toString());
+      return null;
+    }
+    List<String> names =
+        authors.stream()
+            .map(AuthorMetadataResponse::name)
+            .filter(name -> name != null && !name.isBlank())
+            .toList();
+    String joined = String.join(", ", names);
+    return names.size() == authorCount && joined.length() <= MAX_AUTHOR_LENGTH ? joined : null;
+  }
+
+  /**
+   * @return seconds until the next attempt, between half and all of the doubled backoff so jobs
+   *     that failed together, e.g. during an outage, are not retried together
+   */
+  private double backoff(int attempts) {
+    double backoff =
+        Math.min(
+            initialBackoff.toMillis() * Math.pow(2, attempts - 1), (double) maxBackoff.toMillis());
+    return backoff * ThreadLocalRandom.current().nextDouble(0.5, 1.0) / 1000;
+  }
+
+  private static Counter jobCounter(String outcome, MeterRegistry meterRegistry) {
+    return Counter.builder("book.enrichment.jobs")
+        .description("Enrichment jobs by how their attempt ended")
+        .tag("outcome", outcome)
+        .register(meterRegistry);
+  }
+}
@@ -0,0 +1,49 @@
+package de.rieckpil.blog;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import tools.jackson.databind.json.JsonMapper;
+
+@RestController
+@RequestMapping("/api/books/export")
+public class BookExportController {
+
+  private static final byte NEWLINE = '\n';
+
+  private final BookExportService bookExportService;
+  private final JsonMapper jsonMapper;
+
+  public BookExportController(BookExportService bookExportService, JsonMapper jsonMapper) {
+    this.bookExportService = bookExportService;
+    this.jsonMapper = jsonMapper;
+  }
+
+  /**
+   * Writes the catalog as newline-delimited JSON, one book per line. Lines are written to the
+   * response while the database cursor advances, so neither side buffers the whole catalog.
+   */
+  @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public void exportBooks(HttpServletResponse response) throws IOException {
+    response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+    OutputStream outputStream = response.getOutputStream();
+
+    bookExportService.exportBooks(
+        book -> {
+          try {
+            outputStream.write(jsonMapper.writeValueAsBytes(book));
+            outputStream.write(NEWLINE);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+
+    outputStream.flush();
+  }
+}
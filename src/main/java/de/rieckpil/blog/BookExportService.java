@@ -0,0 +1,65 @@
+package de.rieckpil.blog;
+
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/** Streams the whole catalog with constant memory, e.g. for nightly exports to indexers. */
+@Service
+public class BookExportService {
+
+  private final EntityManager entityManager;
+  private final int fetchSize;
+
+  public BookExportService(
+      EntityManager entityManager, @Value("${book.export.fetch-size:1000}") int fetchSize) {
+    this.entityManager = entityManager;
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * Hands every book to the consumer, ordered by id. The PostgreSQL driver only uses a forward-only
+   * server-side cursor inside a transaction and with a fetch size set, so at most {@code fetchSize}
+   * rows are held in memory. Each book is detached right after the consumer saw it to keep the
+   * persistence context from growing with the catalog. The books bypass the second-level cache, so
+   * an export does not evict the books that are actually read from the {@code books} region. The
+   * query restores the session cache mode once it executed, before the stream is read, so the
+   * session ignores the cache for the whole export.
+   *
+   * @param consumer receives the books one by one
+   * @return the number of exported books
+   */
+  @Transactional(readOnly = true)
+  public long exportBooks(Consumer<Book> consumer) {
+    long exported = 0;
+    Session session = entityManager.unwrap(Session.class);
+    CacheMode cacheMode = session.getCacheMode();
+    session.setCacheMode(CacheMode.IGNORE);
+
+    try (Stream<Book> books =
+        entityManager
+            .createQuery("SELECT b FROM Book b ORDER BY b.id", Book.class)
+            .setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+            .setHint(HibernateHints.HINT_READ_ONLY, true)
+            .setHint(HibernateHints.HINT_CACHE_MODE, CacheMode.IGNORE)
+            .getResultStream()) {
+
+      for (Book book : (Iterable<Book>) books::iterator) {
+        consumer.accept(book);
+        entityManager.detach(book);
+        exported++;
+      }
+    } finally {
+      session.setCacheMode(cacheMode);
+    }
+
+    return exported;
+  }
+}
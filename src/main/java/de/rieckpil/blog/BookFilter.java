@@ -0,0 +1,21 @@
+package de.rieckpil.blog;
+
+import java.time.LocalDate;
+
+/**
+ * Criteria of the filtered book listing, each one optional and combined with AND.
+ *
+ * @param status only books with this status
+ * @param publishedFrom only books published on or after this date
+ * @param publishedTo only books published on or before this date
+ * @param authorPrefix only books whose author starts with this text, ignoring case
+ */
+public record BookFilter(
+    BookStatus status, LocalDate publishedFrom, LocalDate publishedTo, String authorPrefix) {
+
+  public BookFilter {
+    if (authorPrefix != null && authorPrefix.isBlank()) {
+      authorPrefix = null;
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package de.rieckpil.blog;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
+
+/** Repository fragment for the filtered book listing, whose query depends on the given criteria. */
+public interface BookFilterRepository {
+
+  /**
+   * Keyset-paginated books matching the filter, ordered by published date and id. Only the given
+   * criteria end up in the query, so PostgreSQL can plan each combination on its own index.
+   *
+   * @param filter the criteria to match
+   * @param publishedDate the published date of the last book of the previous page, {@code null} for
+   *     the first page
+   * @param id the id of the last book of the previous page, {@code null} for the first page
+   * @param limit the maximum page size
+   * @return the matching books following the given published date and id
+   */
+  List<BookSummary> findFiltered(BookFilter filter, LocalDate publishedDate, Long id, Limit limit);
+}
@@ -0,0 +1,96 @@
+package de.rieckpil.blog;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.annotation.Transactional;
+
+class BookFilterRepositoryImpl implements BookFilterRepository {
+
+  private final EntityManager entityManager;
+
+  BookFilterRepositoryImpl(EntityManager entityManager) {
+    this.entityManager = entityManager;
+  }
+
+  /**
+   * The status is written into the query as literal, so the partial index for available books
+   * applies to prepared statements too. The author prefix is matched as a range in the "C"
+   * collation instead of with LIKE, which PostgreSQL can only turn into an index range for a
+   * constant pattern.
+   */
+  @Override
+  @Transactional(readOnly = true)
+  public List<BookSummary> findFiltered(
+      BookFilter filter, LocalDate publishedDate, Long id, Limit limit) {
+    List<String> conditions = new ArrayList<>();
+    Map<String, Object> parameters = new HashMap<>();
+
+    if (filter.status() != null) {
+      conditions.add("b.status = " + BookStatus.class.getName() + "." + filter.status().name());
+    }
+    if (filter.publishedFrom() != null) {
+      conditions.add("b.publishedDate >= :publishedFrom");
+      parameters.put("publishedFrom", filter.publishedFrom());
+    }
+    if (filter.publishedTo() != null) {
+      conditions.add("b.publishedDate <= :publishedTo");
+      parameters.put("publishedTo", filter.publishedTo());
+    }
+    if (filter.authorPrefix() != null) {
+      String prefix = filter.authorPrefix().toLowerCase(Locale.ROOT);
+      String upperBound = prefixUpperBound(prefix);
+      conditions.add("collate(lower(b.author) as `C`) >= :authorFrom");
+      parameters.put("authorFrom", prefix);
+      if (upperBound != null) {
+        conditions.add("collate(lower(b.author) as `C`) < :authorTo");
+        parameters.put("authorTo", upperBound);
+      }
+    }
+    if (id != null) {
+      conditions.add("(b.publishedDate, b.id) > (:publishedDate, :id)");
+      parameters.put("publishedDate", publishedDate);
+      parameters.put("id", id);
+    }
+
+    String jpql =
+        "SELECT new "
+            + BookSummary.class.getName()
+            + "(b.id, b.isbn, b.title, b.author, b.publishedDate, b.thumbnailUrl) FROM Book b"
+            + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions))
+            + " ORDER BY b.publishedDate, b.id";
+
+    TypedQuery<BookSummary> query = entityManager.createQuery(jpql, BookSummary.class);
+    parameters.forEach(query::setParameter);
+    if (limit.isLimited()) {
+      query.setMaxResults(limit.max());
+    }
+    return query.getResultList();
+  }
+
+  /**
+   * @return the smallest text greater than every text starting with the prefix, in code point order
+   *     as in the "C" collation, {@code null} to leave the range open when the prefix consists of
+   *     the highest code point only
+   */
+  static String prefixUpperBound(String prefix) {
+    // the highest code point has no successor, the one before it is incremented instead
+    int end = prefix.length();
+    while (end > 0 && prefix.codePointBefore(end) == Character.MAX_CODE_POINT) {
+      end -= Character.charCount(Character.MAX_CODE_POINT);
+    }
+    if (end == 0) {
+      return null;
+    }
+    int last = prefix.codePointBefore(end);
+    int next = last + 1 == Character.MIN_SURROGATE ? Character.MAX_SURROGATE + 1 : last + 1;
+    return prefix.substring(0, end - Character.charCount(last)) + Character.toString(next);
+  }
+}
@@ -0,0 +1,167 @@
+package de.rieckpil.blog;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers OpenLibrary responses by ISBN in two tiers: a size bound in-memory cache in front of
+ * the {@code book_metadata_cache} table, which survives restarts and is shared by all instances.
+ * Both keep the fields {@link OpenLibraryResponseDecoder} selected from the response until it
+ * expires, and that OpenLibrary does not know an ISBN for a shorter time, as such books are often
+ * added to OpenLibrary later. Lookups are counted as {@code book.metadata.cache.lookups} by the
+ * tier that answered them, {@code upstream} for misses.
+ *
+ * <p>A miss is loaded outside the in-memory cache's lock, a Caffeine load would pin a virtual
+ * thread for the whole upstream call. {@link OpenLibraryApiClient} lets concurrent lookups of the
+ * same ISBN share one, so they do not each miss.
+ */
+@Component
+public class BookMetadataCache {
+
+  private final Cache<String, Lookup> memory;
+  private final BookMetadataCacheRepository repository;
+  private final Duration ttl;
+  private final Duration notFoundTtl;
+  private final Counter memoryHits;
+  private final Counter databaseHits;
+  private final Counter misses;
+
+  /**
+   * @param ttl how long a response is served before OpenLibrary is asked again
+   * @param notFoundTtl how long an ISBN unknown to OpenLibrary is not asked for again
+   */
+  public BookMetadataCache(
+      BookMetadataCacheRepository repository,
+      MeterRegistry meterRegistry,
+      @Value("${book.metadata.cache.maximum-size:10000}") long maximumSize,
+      @Value("${book.metadata.cache.ttl:7d}") Duration ttl,
+      @Value("${book.metadata.cache.not-found-ttl:1h}") Duration notFoundTtl) {
+    this.memory =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(Expiry.writing((String isbn, Lookup lookup) -> lookup.remaining()))
+            .build();
+    this.repository = repository;
+    this.ttl = ttl;
+    this.notFoundTtl = notFoundTtl;
+    this.memoryHits = lookupCounter("memory", meterRegistry);
+    this.databaseHits = lookupCounter("database", meterRegistry);
+    this.misses = lookupCounter("upstream", meterRegistry);
+  }
+
+  /**
+   * @param fetch asks OpenLibrary on a miss, returns the fields selected from the response or empty
+   *     if OpenLibrary does not know the ISBN; exceptions are not cached
+   * @return the selected fields, empty if OpenLibrary does not know the ISBN
+   */
+  public Optional<String> get(String isbn, Supplier<Optional<String>> fetch) {
+    Lookup lookup = memory.getIfPresent(isbn);
+    if (lookup != null) {
+      memoryHits.increment();
+      return Optional.ofNullable(lookup.payload());
+    }
+
+    lookup =
+        repository
+            .findByIsbnAndExpiresAtAfter(isbn, Instant.now())
+            .map(entry -> new Lookup(entry.getPayload(), entry.getExpiresAt()))
+            .orElse(null);
+
+    if (lookup != null) {
+      databaseHits.increment();
+    } else {
+      misses.increment();
+      lookup = store(isbn, fetch.get().orElse(null));
+    }
+
+    memory.put(isbn, lookup);
+    return Optional.ofNullable(lookup.payload());
+  }
+
+  /**
+   * Like {@link #get} for many ISBNs, with one query for those not in memory and one fetch for
+   * those neither tier has.
+   *
+   * @param fetch asks OpenLibrary for the misses, returns the fields selected from the responses by
+   *     ISBN, without the ISBNs OpenLibrary does not know; exceptions are not cached
+   * @return the selected fields by ISBN, empty for those OpenLibrary does not know
+   */
+  public Map<String, Optional<String>> getAll(
+      Collection<String> isbns, Function<List<String>, Map<String, String>> fetch) {
+    Map<String, Lookup> lookups = new HashMap<>();
+    List<String> notInMemory = new ArrayList<>();
+    for (String isbn : isbns) {
+      Lookup lookup = memory.getIfPresent(isbn);
+      if (lookup != null) {
+        memoryHits.increment();
+        lookups.put(isbn, lookup);
+      } else {
+        notInMemory.add(isbn);
+      }
+    }
+
+    if (!notInMemory.isEmpty()) {
+      Map<String, Lookup> loaded = new HashMap<>();
+      repository
+          .findByIsbnInAndExpiresAtAfter(notInMemory, Instant.now())
+          .forEach(
+              entry ->
+                  loaded.put(
+                      entry.getIsbn(), new Lookup(entry.getPayload(), entry.getExpiresAt())));
+      databaseHits.increment(loaded.size());
+
+      List<String> upstream =
+          notInMemory.stream().filter(isbn -> !loaded.containsKey(isbn)).toList();
+      if (!upstream.isEmpty()) {
+        misses.increment(upstream.size());
+        Map<String, String> payloads = fetch.apply(upstream);
+        upstream.forEach(isbn -> loaded.put(isbn, store(isbn, payloads.get(isbn))));
+      }
+
+      memory.putAll(loaded);
+      lookups.putAll(loaded);
+    }
+
+    Map<String, Optional<String>> payloads = new LinkedHashMap<>();
+    isbns.forEach(isbn -> payloads.put(isbn, Optional.ofNullable(lookups.get(isbn).payload())));
+    return payloads;
+  }
+
+  private Lookup store(String isbn, String payload) {
+    Lookup lookup = new Lookup(payload, Instant.now().plus(payload != null ? ttl : notFoundTtl));
+    repository.store(isbn, payload, lookup.expiresAt());
+    return lookup;
+  }
+
+  private static Counter lookupCounter(String tier, MeterRegistry meterRegistry) {
+    return Counter.builder("book.metadata.cache.lookups")
+        .description("ISBN metadata lookups by the tier that answered them")
+        .tag("tier", tier)
+        .register(meterRegistry);
+  }
+
+  private record Lookup(String payload, Instant expiresAt) {
+
+    Duration remaining() {
+      Duration remaining = Duration.between(Instant.now(), expiresAt);
+      return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package de.rieckpil.blog;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import org.hibernate.annotations.Immutable;
+
+/** An OpenLibrary response as kept by the persistent tier of the {@link BookMetadataCache}. */
+@Entity
+@Table(name = "book_metadata_cache")
+@Immutable
+public class BookMetadataCacheEntry {
+
+  @Id private String isbn;
+
+  // Fields selected by OpenLibraryResponseDecoder, null when OpenLibrary does not know the ISBN
+  @Column private String payload;
+
+  @Column(nullable = false)
+  private Instant expiresAt;
+
+  // Default constructor for JPA
+  protected BookMetadataCacheEntry() {}
+
+  public BookMetadataCacheEntry(String isbn, String payload, Instant expiresAt) {
+    this.isbn = isbn;
+    this.payload = payload;
+    this.expiresAt = expiresAt;
+  }
+
+  public String getIsbn() {
+    return isbn;
+  }
+
+  public String getPayload() {
+    return payload;
+  }
+
+  public Instant getExpiresAt() {
+    return expiresAt;
+  }
+}
@@ -0,0 +1,57 @@
+package de.rieckpil.blog;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface BookMetadataCacheRepository extends JpaRepository<BookMetadataCacheEntry, String> {
+
+  /**
+   * @return the cached response for the ISBN, empty if there is none or it expired before {@code
+   *     now}
+   */
+  @Transactional(readOnly = true)
+  Optional<BookMetadataCacheEntry> findByIsbnAndExpiresAtAfter(String isbn, Instant now);
+
+  /**
+   * @return the cached responses for the ISBNs, without those there is none for or that expired
+   *     before {@code now}
+   */
+  @Transactional(readOnly = true)
+  List<BookMetadataCacheEntry> findByIsbnInAndExpiresAtAfter(Collection<String> isbns, Instant now);
+
+  /**
+   * PostgreSQL-specific: Stores the response for an ISBN, replacing an earlier, usually expired,
+   * one in the same statement. Declares the table it writes, Hibernate would otherwise assume a
+   * native statement changes every table and clear the whole second-level cache.
+   *
+   * @param payload the fields selected from the response, {@code null} if OpenLibrary does not know
+   *     the ISBN
+   */
+  @Transactional
+  @Modifying
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "book_metadata_cache"))
+  @Query(
+      value =
+          """
+    INSERT INTO book_metadata_cache (isbn, payload, expires_at)
+    VALUES (:isbn, CAST(:payload AS TEXT), :expiresAt)
+    ON CONFLICT (isbn) DO UPDATE
+    SET payload = EXCLUDED.payload, fetched_at = now(), expires_at = EXCLUDED.expires_at
+    """,
+      nativeQuery = true)
+  void store(
+      @Param("isbn") String isbn,
+      @Param("payload") String payload,
+      @Param("expiresAt") Instant expiresAt);
+}
@@ -2,9 +2,11 @@ package de.rieckpil.blog;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import tools.jackson.databind.annotation.JsonDeserialize;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public record BookMetadataResponse(
@@ -20,15 +22,15 @@ public record BookMetadataResponse(
     @JsonProperty("publish_date") String publishDate,
     List<String> publishers,
 
-    // Author references - need to be fetched separately
+    // Author references, resolved by OpenLibraryApiClient#getAuthors
     @JsonProperty("authors") List<Map<String, String>> authorRefs,
 
     // Physical details
     @JsonProperty("number_of_pages") Integer numberOfPages,
     @JsonProperty("physical_format") String physicalFormat,
 
-    // Additional metadata
-    String description,
+    // Additional metadata, the description is often a typed text object
+    @JsonDeserialize(using = OpenLibraryTextDeserializer.class) String description,
     @JsonProperty("subjects") List<String> subjects,
     List<Integer> covers) {
   // Convenience methods
@@ -41,6 +43,14 @@ public record BookMetadataResponse(
     return null;
   }
 
+  /** The author keys, e.g. {@code /authors/OL5851148A}, for {@link AuthorMetadataResponse}. */
+  public List<String> getAuthorKeys() {
+    if (authorRefs == null) {
+      return List.of();
+    }
+    return authorRefs.stream().map(ref -> ref.get("key")).filter(Objects::nonNull).toList();
+  }
+
   public String getPublisher() {
     if (publishers != null && !publishers.isEmpty()) {
       return publishers.get(0);
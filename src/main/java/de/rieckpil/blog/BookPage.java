@@ -0,0 +1,15 @@
+package de.rieckpil.blog;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One keyset-paginated slice of the book catalog.
+ *
+ * @param content the books of this page
+ * @param next opaque cursor for the following page, {@code null} on the last page
+ * @param approximateTotal planner estimate of the catalog size, only present when requested
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BookPage(List<BookSummary> content, String next, Long approximateTotal) {}
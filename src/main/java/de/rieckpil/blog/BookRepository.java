@@ -1,38 +1,249 @@
 package de.rieckpil.blog;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface BookRepository extends JpaRepository<Book, Long> {
+public interface BookRepository
+    extends JpaRepository<Book, Long>,
+        BookCacheRepository,
+        BookFilterRepository,
+        BookCreationRepository {
+
+  /** Number of top ranked title search results returned when the caller does not page. */
+  int DEFAULT_SEARCH_LIMIT = 20;
 
   /**
-   * PostgreSQL-specific: Full text search on book titles with ranking. Uses PostgreSQL's
-   * to_tsvector and to_tsquery for sophisticated text searching with ranking based on relevance.
+   * PostgreSQL-specific: Full text search on book titles with ranking. Matches against the stored
+   * {@code title_search} tsvector column, which is backed by a GIN index, so neither the WHERE
+   * clause nor the ranking has to run to_tsvector for every row. Only the top ranked matches are
+   * returned.
    *
    * @param searchTerms the search terms (e.g. "adventure dragons fantasy")
-   * @return list of books matching the search terms, ordered by relevance
+   * @param limit the maximum number of books to return
+   * @param offset the number of top ranked books to skip
+   * @return books matching the search terms, ordered by relevance
    */
+  @Transactional(readOnly = true)
   @Query(
       value =
           """
-    SELECT * FROM books
-    WHERE to_tsvector('english', title) @@ plainto_tsquery('english', :searchTerms)
-    ORDER BY ts_rank(to_tsvector('english', title), plainto_tsquery('english', :searchTerms)) DESC
+    SELECT b.id, b.isbn, b.title, b.author, b.published_date AS "publishedDate",
+           b.thumbnail_url AS "thumbnailUrl"
+    FROM books b, plainto_tsquery('english', :searchTerms) query
+    WHERE b.title_search @@ query
+    ORDER BY ts_rank(b.title_search, query) DESC, b.id
+    LIMIT :limit OFFSET :offset
     """,
       nativeQuery = true)
-  List<Book> searchBooksByTitleWithRanking(@Param("searchTerms") String searchTerms);
+  List<BookSummary> searchBooksByTitleWithRanking(
+      @Param("searchTerms") String searchTerms,
+      @Param("limit") int limit,
+      @Param("offset") long offset);
+
+  /**
+   * PostgreSQL-specific: The {@link #DEFAULT_SEARCH_LIMIT} best title matches.
+   *
+   * @param searchTerms the search terms (e.g. "adventure dragons fantasy")
+   * @return books matching the search terms, ordered by relevance
+   */
+  default List<BookSummary> searchBooksByTitleWithRanking(String searchTerms) {
+    return searchBooksByTitleWithRanking(searchTerms, DEFAULT_SEARCH_LIMIT, 0);
+  }
+
+  /**
+   * PostgreSQL-specific: Books with any of the given ids. The ids are bound as one array, so the
+   * statement is the same for every number of ids.
+   *
+   * @param ids the ids to look up
+   * @return the books found, in no particular order
+   */
+  @Transactional(readOnly = true)
+  @Query(value = "SELECT * FROM books WHERE id = ANY(CAST(:ids AS BIGINT[]))", nativeQuery = true)
+  List<Book> findAllByIds(@Param("ids") Long[] ids);
 
   /**
-   * Find a book by its ISBN.
+   * PostgreSQL-specific: Books with any of the given ISBNs, bound as one array like {@link
+   * #findAllByIds(Long[])}.
    *
-   * @param isbn the ISBN to search for
-   * @return the book with the given ISBN, if found
+   * @param isbns the ISBNs to look up
+   * @return the books found, in no particular order
    */
-  Optional<Book> findByIsbn(String isbn);
+  @Transactional(readOnly = true)
+  @Query(value = "SELECT * FROM books WHERE isbn = ANY(CAST(:isbns AS TEXT[]))", nativeQuery = true)
+  List<Book> findAllByIsbns(@Param("isbns") String[] isbns);
+
+  /**
+   * PostgreSQL-specific: Overwrites the editable columns of a book without loading it first and
+   * returns the updated row from the same statement. The version is incremented like Hibernate
+   * would do for an optimistic lock.
+   *
+   * @param expectedVersion only update the book if it still has this version, {@code null} to
+   *     update it regardless
+   * @return the updated book, empty if there is no book with the given id and expected version
+   */
+  @Transactional
+  @Query(
+      value =
+          """
+    UPDATE books
+    SET title = :title, author = :author, published_date = :publishedDate, status = :status,
+        version = version + 1
+    WHERE id = :id AND version = COALESCE(:expectedVersion, version)
+    RETURNING *
+    """,
+      nativeQuery = true)
+  Optional<Book> updateById(
+      @Param("id") Long id,
+      @Param("title") String title,
+      @Param("author") String author,
+      @Param("publishedDate") LocalDate publishedDate,
+      @Param("status") String status,
+      @Param("expectedVersion") Long expectedVersion);
 
+  /**
+   * Deletes a book with a single statement. Unlike {@link #deleteById(Object)} it does not load the
+   * book first.
+   *
+   * @return the number of deleted books, 0 or 1
+   */
+  @Transactional
+  @Modifying
+  @Query("DELETE FROM Book b WHERE b.id = :id")
+  int deleteBookById(@Param("id") Long id);
+
+  /**
+   * Case-insensitive substring search on the author. Uses ILIKE instead of the derived {@code
+   * lower(author) LIKE ...} so PostgreSQL can answer it from the trigram index on the author
+   * column. LIKE wildcards in the input are escaped.
+   *
+   * @param author the part of the author name to search for
+   * @return books whose author contains the given text, ordered by author
+   */
+  @Query(
+      "SELECT b FROM Book b WHERE b.author ILIKE %:#{escape([0])}% ESCAPE :#{escapeCharacter()}"
+          + " ORDER BY b.author, b.id")
   List<Book> findByAuthorContainingIgnoreCase(String author);
+
+  /**
+   * Same as {@link #findByAuthorContainingIgnoreCase(String)} but stops after the given number of
+   * books and only reads the columns of a {@link BookSummary}.
+   */
+  @Transactional(readOnly = true)
+  @Query(
+      "SELECT b FROM Book b WHERE b.author ILIKE %:#{escape([0])}% ESCAPE :#{escapeCharacter()}"
+          + " ORDER BY b.author, b.id")
+  List<BookSummary> findSummariesByAuthorContainingIgnoreCase(String author, Limit limit);
+
+  /**
+   * PostgreSQL-specific: Typo-tolerant author search based on pg_trgm word similarity. The {@code
+   * <%} operator is served by the trigram index, so only candidates above the similarity threshold
+   * are ranked.
+   *
+   * @param author the (possibly misspelled) author name or part of it
+   * @param limit the maximum number of books to return
+   * @return books whose author is similar to the given text, best matches first
+   */
+  @Transactional(readOnly = true)
+  @Query(
+      value =
+          """
+    SELECT id, isbn, title, author, published_date AS "publishedDate", thumbnail_url AS "thumbnailUrl"
+    FROM books
+    WHERE :author <% author
+    ORDER BY word_similarity(:author, author) DESC, id
+    LIMIT :limit
+    """,
+      nativeQuery = true)
+  List<BookSummary> findByAuthorSimilarTo(
+      @Param("author") String author, @Param("limit") int limit);
+
+  /**
+   * First page of the keyset-paginated book listing.
+   *
+   * @param sort the sort order, ending with the id to keep the keyset unique
+   * @param limit the maximum page size
+   * @return the first books in the given order
+   */
+  @Transactional(readOnly = true)
+  List<BookSummary> findBy(Sort sort, Limit limit);
+
+  /**
+   * Keyset pagination ordered by id: continues right after the last id of the previous page instead
+   * of skipping rows with an OFFSET.
+   *
+   * @param id the id of the last book of the previous page
+   * @param limit the maximum page size
+   * @return the books following the given id
+   */
+  @Transactional(readOnly = true)
+  @Query("SELECT b FROM Book b WHERE b.id > :id ORDER BY b.id")
+  List<BookSummary> findPageAfterId(@Param("id") Long id, Limit limit);
+
+  /**
+   * Keyset pagination ordered by title and id. The row value comparison lets PostgreSQL start an
+   * index range scan on {@code (title, id)} right at the cursor position.
+   *
+   * @param title the title of the last book of the previous page
+   * @param id the id of the last book of the previous page
+   * @param limit the maximum page size
+   * @return the books following the given title and id
+   */
+  @Transactional(readOnly = true)
+  @Query("SELECT b FROM Book b WHERE (b.title, b.id) > (:title, :id) ORDER BY b.title, b.id")
+  List<BookSummary> findPageAfterTitle(
+      @Param("title") String title, @Param("id") Long id, Limit limit);
+
+  /**
+   * Keyset pagination ordered by published date and id, backed by an index on {@code
+   * (published_date, id)}.
+   *
+   * @param publishedDate the published date of the last book of the previous page
+   * @param id the id of the last book of the previous page
+   * @param limit the maximum page size
+   * @return the books following the given published date and id
+   */
+  @Transactional(readOnly = true)
+  @Query(
+      "SELECT b FROM Book b WHERE (b.publishedDate, b.id) > (:publishedDate, :id)"
+          + " ORDER BY b.publishedDate, b.id")
+  List<BookSummary> findPageAfterPublishedDate(
+      @Param("publishedDate") LocalDate publishedDate, @Param("id") Long id, Limit limit);
+
+  /**
+   * PostgreSQL-specific: Approximate number of books based on the planner statistics in pg_class.
+   * Avoids a full {@code COUNT(*)} scan but is only as fresh as the last (auto)vacuum or analyze.
+   *
+   * @return the estimated number of rows in the books table
+   */
+  @Query(
+      value =
+          "SELECT CAST(GREATEST(reltuples, 0) AS BIGINT) FROM pg_class WHERE oid = to_regclass('books')",
+      nativeQuery = true)
+  long estimateCount();
+
+  /**
+   * PostgreSQL-specific: Number of books per status from the counter table that triggers keep
+   * current on every write. Reads a fixed number of rows, independent of the catalog size.
+   *
+   * @return one count per status
+   */
+  @Transactional(readOnly = true)
+  @Query(
+      value =
+          """
+    SELECT status, CAST(SUM(book_count) AS BIGINT) AS count
+    FROM book_status_counters
+    GROUP BY status
+    """,
+      nativeQuery = true)
+  List<BookStatusCount> countByStatus();
 }
@@ -0,0 +1,146 @@
+package de.rieckpil.blog;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches title and author search results by their normalized search terms. Size bound, expiry and
+ * statistics come from {@code spring.cache.caffeine.spec}. Spring Boot publishes hits, misses and
+ * evictions under {@code cache.*}; Micrometer only adds load times for loading caches, so the
+ * searches run on a miss are timed as {@code book.search.cache.load}.
+ *
+ * <p>Every book write drops all cached searches with {@link #evictAll()}, which also increments a
+ * generation counter. A search remembers the generation it started in and is only cached if no
+ * write happened until it finished, so a search loaded concurrently with a write is returned to its
+ * callers but never serves the previous result afterwards.
+ *
+ * <p>The caches run in async mode, see {@link CacheConfig}: a synchronous Caffeine load runs inside
+ * a {@code synchronized} map bin and would pin a virtual thread for the whole query. Here the
+ * caller that registered the pending result runs the search itself, outside any lock and with its
+ * thread-local state such as the transaction routing, and concurrent callers wait for the result.
+ */
+@Component
+public class BookSearchCache {
+
+  public static final String TITLE_SEARCH_CACHE = "bookTitleSearch";
+  public static final String AUTHOR_SEARCH_CACHE = "bookAuthorSearch";
+
+  private final CaffeineCache titleSearchCache;
+  private final CaffeineCache authorSearchCache;
+  private final Timer titleSearchLoadTimer;
+  private final Timer authorSearchLoadTimer;
+
+  /** Incremented by every {@link #evictAll()}, a search is only cached if it did not change. */
+  private final AtomicLong generation = new AtomicLong();
+
+  private final StaleReadGuard staleReadGuard;
+
+  public BookSearchCache(
+      CacheManager cacheManager, MeterRegistry meterRegistry, StaleReadGuard staleReadGuard) {
+    this.titleSearchCache = (CaffeineCache) cacheManager.getCache(TITLE_SEARCH_CACHE);
+    this.authorSearchCache = (CaffeineCache) cacheManager.getCache(AUTHOR_SEARCH_CACHE);
+    this.titleSearchLoadTimer = loadTimer(TITLE_SEARCH_CACHE, meterRegistry);
+    this.authorSearchLoadTimer = loadTimer(AUTHOR_SEARCH_CACHE, meterRegistry);
+    this.staleReadGuard = staleReadGuard;
+  }
+
+  /**
+   * @param search runs the search for the normalized terms on a cache miss
+   */
+  public List<BookSummary> searchByTitle(
+      String searchTerms, int page, int size, Function<String, List<BookSummary>> search) {
+    String terms = normalize(searchTerms);
+    return get(
+        titleSearchCache,
+        new TitleSearchKey(terms, page, size),
+        () -> titleSearchLoadTimer.record(() -> search.apply(terms)));
+  }
+
+  /**
+   * @param search runs the search for the normalized author on a cache miss
+   */
+  public List<BookSummary> searchByAuthor(
+      String author, boolean fuzzy, int limit, Function<String, List<BookSummary>> search) {
+    String terms = normalize(author);
+    return get(
+        authorSearchCache,
+        new AuthorSearchKey(terms, fuzzy, limit),
+        () -> authorSearchLoadTimer.record(() -> search.apply(terms)));
+  }
+
+  /**
+   * Drops every cached search after a book was created, updated or deleted. Called after the write
+   * committed, a search loaded concurrently with it is returned to its callers but not kept.
+   */
+  public void evictAll() {
+    generation.incrementAndGet();
+    titleSearchCache.invalidate();
+    authorSearchCache.invalidate();
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<BookSummary> get(
+      CaffeineCache cache, SearchKey key, Supplier<List<BookSummary>> search) {
+    CompletableFuture<Object> loading = new CompletableFuture<>();
+    CompletableFuture<Object> result = cache.getAsyncCache().get(key, (k, executor) -> loading);
+
+    if (result == loading) {
+      long started = System.nanoTime();
+      long loadedGeneration = generation.get();
+      try {
+        List<BookSummary> books = search.get();
+        if (generation.get() != loadedGeneration || staleReadGuard.mayBeStale(started)) {
+          cache.getAsyncCache().asMap().remove(key, loading);
+        }
+        loading.complete(books);
+      } catch (Throwable e) {
+        // removed right away, Caffeine only drops a failed load after waking its callers
+        cache.getAsyncCache().asMap().remove(key, loading);
+        loading.completeExceptionally(e);
+        throw e;
+      }
+    }
+
+    try {
+      return (List<BookSummary>) result.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof Error cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  private static Timer loadTimer(String cacheName, MeterRegistry meterRegistry) {
+    return Timer.builder("book.search.cache.load")
+        .description("Time to run a search that missed the cache")
+        .tag("cache", cacheName)
+        .register(meterRegistry);
+  }
+
+  private static String normalize(String searchTerms) {
+    return String.join(" ", searchTerms.trim().toLowerCase(Locale.ROOT).split("\\s+"));
+  }
+
+  private interface SearchKey {
+    String terms();
+  }
+
+  private record TitleSearchKey(String terms, int page, int size) implements SearchKey {}
+
+  private record AuthorSearchKey(String terms, boolean fuzzy, int limit) implements SearchKey {}
+}
@@ -1,66 +1,234 @@
 package de.rieckpil.blog;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class BookService {
 
+  /** Deepest rank a search result can be paged to, ranking beyond it is not worth the sort. */
+  static final int MAX_SEARCH_RESULT_WINDOW = 1000;
+
+  /** Most ids, and separately ISBNs, a single batch read may ask for. */
+  static final int MAX_BATCH_SIZE = 200;
+
   private final BookRepository bookRepository;
-  private final OpenLibraryApiClient openLibraryApiClient;
+  private final BookSearchCache bookSearchCache;
+  private final StaleReadGuard staleReadGuard;
 
-  public BookService(BookRepository bookRepository, OpenLibraryApiClient openLibraryApiClient) {
+  public BookService(
+      BookRepository bookRepository,
+      BookSearchCache bookSearchCache,
+      StaleReadGuard staleReadGuard) {
     this.bookRepository = bookRepository;
-    this.openLibraryApiClient = openLibraryApiClient;
+    this.bookSearchCache = bookSearchCache;
+    this.staleReadGuard = staleReadGuard;
   }
 
+  /**
+   * Saves the book without its OpenLibrary metadata, which the {@link BookEnrichmentWorker} fills
+   * in afterwards, so neither the latency nor the availability of OpenLibrary affect creates.
+   */
   public Long createBook(BookCreationRequest request) {
-    if (bookRepository.findByIsbn(request.isbn()).isPresent()) {
-      throw new BookAlreadyExistsException(request.isbn());
-    }
+    Long id =
+        bookRepository
+            .insertIfIsbnAbsent(
+                request.isbn(), request.title(), request.author(), request.publishedDate())
+            .orElseThrow(() -> new BookAlreadyExistsException(request.isbn()));
+
+    staleReadGuard.recordWrite();
+    bookSearchCache.evictAll();
+    return id;
+  }
+
+  @Transactional(readOnly = true)
+  public BookPage getBooks(
+      BookSortField sortField, String cursor, int size, boolean includeApproximateTotal) {
+    BookCursor position = BookCursor.decode(sortField, cursor);
+
+    // fetch one extra row to find out whether there is a next page without counting
+    Limit limit = Limit.of(size + 1);
+    List<BookSummary> books =
+        position == null
+            ? bookRepository.findBy(sortField.toSort(), limit)
+            : switch (sortField) {
+              case ID -> bookRepository.findPageAfterId(position.id(), limit);
+              case TITLE -> bookRepository.findPageAfterTitle(
+                  (String) position.value(), position.id(), limit);
+              case PUBLISHED_DATE -> bookRepository.findPageAfterPublishedDate(
+                  (LocalDate) position.value(), position.id(), limit);
+            };
+
+    Long approximateTotal = includeApproximateTotal ? bookRepository.estimateCount() : null;
 
-    Book book =
-        new Book(request.isbn(), request.title(), request.author(), request.publishedDate());
+    return pageOf(books, size, sortField, approximateTotal);
+  }
+
+  /** Keyset-paginated books matching the filter, ordered by published date. */
+  @Transactional(readOnly = true)
+  public BookPage getFilteredBooks(BookFilter filter, String cursor, int size) {
+    BookCursor position = BookCursor.decode(BookSortField.PUBLISHED_DATE, cursor);
+
+    List<BookSummary> books =
+        bookRepository.findFiltered(
+            filter,
+            position == null ? null : (LocalDate) position.value(),
+            position == null ? null : position.id(),
+            Limit.of(size + 1));
+
+    return pageOf(books, size, BookSortField.PUBLISHED_DATE, null);
+  }
 
-    BookMetadataResponse metadata = openLibraryApiClient.getBookByIsbn(request.isbn());
+  /**
+   * @param books up to one book more than the page size, which tells there is a next page
+   */
+  private static BookPage pageOf(
+      List<BookSummary> books, int size, BookSortField sortField, Long approximateTotal) {
+    boolean hasNext = books.size() > size;
+    List<BookSummary> content = hasNext ? books.subList(0, size) : books;
+    String next = hasNext ? BookCursor.after(sortField, content.getLast()).encode() : null;
 
-    book.setThumbnailUrl(metadata.getCoverUrl());
+    return new BookPage(content, next, approximateTotal);
+  }
 
-    Book savedBook = bookRepository.save(book);
-    return savedBook.getId();
+  /** Not transactional itself, so a cache hit does not take a database connection. */
+  public List<BookSummary> searchBooksByTitle(String searchTerms, int page, int size) {
+    long offset = (long) page * size;
+    if (offset + size > MAX_SEARCH_RESULT_WINDOW) {
+      throw new InvalidPageRequestException(
+          "Only the top " + MAX_SEARCH_RESULT_WINDOW + " search results can be paged through");
+    }
+    return bookSearchCache.searchByTitle(
+        searchTerms,
+        page,
+        size,
+        terms -> bookRepository.searchBooksByTitleWithRanking(terms, size, offset));
   }
 
-  public List<Book> getAllBooks() {
-    return bookRepository.findAll();
+  /** Not transactional itself, so a cache hit does not take a database connection. */
+  public List<BookSummary> searchBooksByAuthor(String author, boolean fuzzy, int limit) {
+    return bookSearchCache.searchByAuthor(
+        author,
+        fuzzy,
+        limit,
+        terms ->
+            fuzzy
+                ? bookRepository.findByAuthorSimilarTo(terms, limit)
+                : bookRepository.findSummariesByAuthorContainingIgnoreCase(terms, Limit.of(limit)));
   }
 
+  @Transactional(readOnly = true)
   public Optional<Book> getBookById(Long id) {
     return bookRepository.findById(id);
   }
 
-  public Optional<Book> updateBook(Long id, BookUpdateRequest request) {
-    return bookRepository
-        .findById(id)
-        .map(
-            book -> {
-              book.setTitle(request.title());
-              book.setAuthor(request.author());
-              book.setPublishedDate(request.publishedDate());
-              book.setStatus(request.status());
-              return bookRepository.save(book);
-            });
+  /**
+   * Reads the books with the given ids and ISBNs with at most one query per kind of key. A book
+   * requested by both its id and ISBN is returned once.
+   */
+  @Transactional(readOnly = true)
+  public BookBatch getBooks(List<Long> ids, List<String> isbns) {
+    Map<Long, Book> booksById = new LinkedHashMap<>();
+    Set<Long> requestedIds = new LinkedHashSet<>(ids);
+    Set<String> requestedIsbns = new LinkedHashSet<>(isbns);
+
+    Map<Long, Book> foundById = new HashMap<>();
+    if (!requestedIds.isEmpty()) {
+      bookRepository
+          .findAllByIds(requestedIds.toArray(Long[]::new))
+          .forEach(book -> foundById.put(book.getId(), book));
+    }
+    Map<String, Book> foundByIsbn = new HashMap<>();
+    if (!requestedIsbns.isEmpty()) {
+      bookRepository
+          .findAllByIsbns(requestedIsbns.toArray(String[]::new))
+          .forEach(book -> foundByIsbn.put(book.getIsbn(), book));
+    }
+
+    List<Long> missingIds = new ArrayList<>();
+    for (Long id : requestedIds) {
+      Book book = foundById.get(id);
+      if (book == null) {
+        missingIds.add(id);
+      } else {
+        booksById.putIfAbsent(id, book);
+      }
+    }
+    List<String> missingIsbns = new ArrayList<>();
+    for (String isbn : requestedIsbns) {
+      Book book = foundByIsbn.get(isbn);
+      if (book == null) {
+        missingIsbns.add(isbn);
+      } else {
+        booksById.putIfAbsent(book.getId(), book);
+      }
+    }
+
+    return new BookBatch(List.copyOf(booksById.values()), missingIds, missingIsbns);
+  }
+
+  /**
+   * @param expectedVersion the version the client based its changes on, {@code null} to update
+   *     unconditionally
+   * @throws BookVersionMismatchException if the book exists but no longer has the expected version
+   */
+  public Optional<Book> updateBook(Long id, BookUpdateRequest request, Long expectedVersion) {
+    Optional<Book> updatedBook =
+        bookRepository.updateById(
+            id,
+            request.title(),
+            request.author(),
+            request.publishedDate(),
+            request.status().name(),
+            expectedVersion);
+
+    if (updatedBook.isEmpty()) {
+      if (expectedVersion != null && bookRepository.existsById(id)) {
+        throw new BookVersionMismatchException(id);
+      }
+      return updatedBook;
+    }
+
+    // the native update bypasses Hibernate, the JPQL delete below is evicted by Hibernate itself
+    bookRepository.evictFromCache(id);
+    staleReadGuard.recordWrite();
+    bookSearchCache.evictAll();
+    return updatedBook;
   }
 
   public boolean deleteBook(Long id) {
-    return bookRepository
-        .findById(id)
-        .map(
-            book -> {
-              bookRepository.delete(book);
-              return true;
-            })
-        .orElse(false);
+    if (bookRepository.deleteBookById(id) == 0) {
+      return false;
+    }
+    staleReadGuard.recordWrite();
+    bookSearchCache.evictAll();
+    return true;
+  }
+
+  /**
+   * @return the number of books per status, statuses without books included with zero
+   */
+  @Transactional(readOnly = true)
+  public Map<BookStatus, Long> getStatusCounts() {
+    Map<BookStatus, Long> counts = new EnumMap<>(BookStatus.class);
+    for (BookStatus status : BookStatus.values()) {
+      counts.put(status, 0L);
+    }
+    for (BookStatusCount statusCount : bookRepository.countByStatus()) {
+      counts.put(statusCount.getStatus(), statusCount.getCount());
+    }
+    return counts;
   }
 }
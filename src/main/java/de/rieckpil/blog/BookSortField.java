@@ -0,0 +1,56 @@
+package de.rieckpil.blog;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+import org.springframework.data.domain.Sort;
+
+/** Columns the book listing can be keyset-paginated on. The id always acts as tiebreaker. */
+public enum BookSortField {
+  ID("id"),
+  TITLE("title"),
+  PUBLISHED_DATE("publishedDate");
+
+  private final String property;
+
+  BookSortField(String property) {
+    this.property = property;
+  }
+
+  public String getProperty() {
+    return property;
+  }
+
+  public static BookSortField fromProperty(String property) {
+    for (BookSortField sortField : values()) {
+      if (sortField.property.equals(property)) {
+        return sortField;
+      }
+    }
+    throw new InvalidPageRequestException("Unsupported sort property: " + property);
+  }
+
+  Sort toSort() {
+    return this == ID ? Sort.by(property) : Sort.by(property, ID.property);
+  }
+
+  Object valueOf(BookSummary book) {
+    return switch (this) {
+      case ID -> book.id();
+      case TITLE -> book.title();
+      case PUBLISHED_DATE -> book.publishedDate();
+    };
+  }
+
+  Object parseValue(String value) {
+    try {
+      return switch (this) {
+        case ID -> Long.valueOf(value);
+        case TITLE -> value;
+        case PUBLISHED_DATE -> LocalDate.parse(value);
+      };
+    } catch (NumberFormatException | DateTimeParseException e) {
+      throw new InvalidPageRequestException("Invalid cursor");
+    }
+  }
+}
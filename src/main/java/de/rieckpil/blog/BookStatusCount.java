@@ -0,0 +1,12 @@
+package de.rieckpil.blog;
+
+/**
+ * Number of books in one status, summed over the striped rows of the status counter table. An
+ * interface projection, so Spring Data converts the status read by the native query to the enum.
+ */
+public interface BookStatusCount {
+
+  BookStatus getStatus();
+
+  long getCount();
+}
@@ -0,0 +1,17 @@
+package de.rieckpil.blog;
+
+import java.time.LocalDate;
+
+/**
+ * Read-only projection of a book for list and search responses. It carries only the columns these
+ * responses show, so neither the description nor a managed entity is loaded for them. Native
+ * queries alias their snake_case columns to the component names, e.g. {@code published_date AS
+ * "publishedDate"}.
+ */
+public record BookSummary(
+    Long id,
+    String isbn,
+    String title,
+    String author,
+    LocalDate publishedDate,
+    String thumbnailUrl) {}
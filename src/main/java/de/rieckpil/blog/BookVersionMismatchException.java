@@ -0,0 +1,13 @@
+package de.rieckpil.blog;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/** Exception thrown when a conditional update was based on an outdated version of a book. */
+@ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+public class BookVersionMismatchException extends RuntimeException {
+
+  public BookVersionMismatchException(Long id) {
+    super("Book with id " + id + " has been modified in the meantime");
+  }
+}
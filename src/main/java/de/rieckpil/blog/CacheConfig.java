@@ -0,0 +1,25 @@
+package de.rieckpil.blog;
+
+import org.springframework.boot.cache.autoconfigure.CacheManagerCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Lets Spring Boot set up the {@code spring.cache} caches. Kept apart from the application class so
+ * sliced tests without a cache manager still start.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+  /**
+   * Async caches hold a future per entry, so a caller loads a missing value without holding a lock
+   * of the cache. {@link BookSearchCache} relies on this to not pin virtual threads.
+   */
+  @Bean
+  CacheManagerCustomizer<CaffeineCacheManager> asyncCaffeineCacheMode() {
+    return cacheManager -> cacheManager.setAsyncCacheMode(true);
+  }
+}
@@ -0,0 +1,114 @@
+package de.rieckpil.blog;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.CacheStoreMode;
+import org.hibernate.jpa.SpecHints;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.autoconfigure.DataSourceProperties;
+import org.springframework.boot.jdbc.autoconfigure.JdbcConnectionDetails;
+import org.springframework.boot.transaction.autoconfigure.TransactionManagerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.JpaTransactionManager;
+
+/**
+ * Sends read-only transactions to PostgreSQL read replicas and everything else to the primary. Only
+ * active when {@code book.datasource.replica-urls} lists at least one replica; the replicas share
+ * credentials and pool settings with the primary configured under {@code spring.datasource}.
+ *
+ * <p>The routing relies on {@link LazyConnectionDataSourceProxy}: it fetches the physical
+ * connection on the first statement, after the transaction manager marked the connection read-only,
+ * and takes it from the replicas then.
+ *
+ * <p>Entities a replica returns shortly after a write may predate it. {@link StaleReadGuard} keeps
+ * them out of the second-level cache, which would otherwise serve them until they expire.
+ */
+@Configuration
+@ConditionalOnProperty("book.datasource.replica-urls")
+public class DataSourceRoutingConfig {
+
+  /** The auto-configured pool backs off once we define a data source, so build it the same way. */
+  @Bean
+  @ConfigurationProperties("spring.datasource.hikari")
+  public HikariDataSource primaryDataSource(
+      DataSourceProperties properties, ObjectProvider<JdbcConnectionDetails> connectionDetails) {
+    HikariDataSource dataSource =
+        properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+
+    connectionDetails.ifAvailable(
+        details -> {
+          dataSource.setJdbcUrl(details.getJdbcUrl());
+          dataSource.setUsername(details.getUsername());
+          dataSource.setPassword(details.getPassword());
+          dataSource.setDriverClassName(details.getDriverClassName());
+        });
+    dataSource.setPoolName("primary");
+
+    return dataSource;
+  }
+
+  @Bean
+  ReplicaRoutingDataSource readOnlyDataSource(
+      HikariDataSource primaryDataSource,
+      @Value("${book.datasource.replica-urls}") List<String> replicaUrls) {
+    List<HikariDataSource> replicas = new ArrayList<>();
+    for (String replicaUrl : replicaUrls) {
+      HikariConfig replicaConfig = new HikariConfig();
+      primaryDataSource.copyStateTo(replicaConfig);
+      replicaConfig.setJdbcUrl(replicaUrl);
+      replicaConfig.setPoolName("replica-" + replicas.size());
+      replicaConfig.setReadOnly(true);
+      replicas.add(new HikariDataSource(replicaConfig));
+    }
+    return new ReplicaRoutingDataSource(primaryDataSource, replicas);
+  }
+
+  @Bean
+  @Primary
+  public DataSource dataSource(
+      HikariDataSource primaryDataSource, ReplicaRoutingDataSource readOnlyDataSource) {
+    LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+    dataSource.setReadOnlyDataSource(readOnlyDataSource);
+    return dataSource;
+  }
+
+  /**
+   * Transactions that may read from a lagging replica still read from the second-level cache, but
+   * do not put what they load into it. Decided when the transaction starts, before it knows whether
+   * it is read-only, so writes in that window skip the cache too.
+   */
+  @Bean
+  TransactionManagerCustomizer<JpaTransactionManager> staleReadCacheModeCustomizer(
+      StaleReadGuard staleReadGuard) {
+    return transactionManager ->
+        transactionManager.setEntityManagerInitializer(
+            entityManager -> {
+              if (staleReadGuard.mayBeStale(System.nanoTime())) {
+                entityManager.setProperty(
+                    SpecHints.HINT_SPEC_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+              }
+            });
+  }
+
+  /**
+   * @param window how long reads of a client go to the primary after it wrote, should exceed the
+   *     usual replication lag
+   */
+  @Bean
+  ReadYourWritesFilter readYourWritesFilter(
+      @Value("${book.datasource.read-your-writes-window:5s}") Duration window) {
+    return new ReadYourWritesFilter(window);
+  }
+}
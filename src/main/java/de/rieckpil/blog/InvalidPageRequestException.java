@@ -0,0 +1,13 @@
+package de.rieckpil.blog;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/** Exception thrown when a client sends a malformed cursor or an unsupported sort property. */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidPageRequestException extends RuntimeException {
+
+  public InvalidPageRequestException(String message) {
+    super(message);
+  }
+}
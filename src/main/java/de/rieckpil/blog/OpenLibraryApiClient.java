@@ -1,24 +1,363 @@
 package de.rieckpil.blog;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
 
 /** Client for interacting with the OpenLibrary API. */
 @Component
 public class OpenLibraryApiClient {
 
   private final WebClient webClient;
+  private final BookMetadataCache metadataCache;
+  private final JsonMapper jsonMapper;
+  private final OpenLibraryResponseDecoder responseDecoder;
+  private final OpenLibraryResilience resilience;
+  private final int batchChunkSize;
+  private final int batchConcurrency;
+
+  /** Resolved authors and lookups in progress by author key. */
+  private final AsyncCache<String, AuthorMetadataResponse> authors;
+
+  /** Lookups in progress by ISBN, completed with the selected fields or the failure. */
+  private final ConcurrentMap<String, CompletableFuture<Optional<String>>> lookupsInFlight =
+      new ConcurrentHashMap<>();
 
-  public OpenLibraryApiClient(WebClient openLibraryWebClient) {
+  public OpenLibraryApiClient(
+      WebClient openLibraryWebClient,
+      BookMetadataCache metadataCache,
+      JsonMapper jsonMapper,
+      OpenLibraryResponseDecoder responseDecoder,
+      OpenLibraryResilience resilience,
+      @Value("${book.metadata.batch.chunk-size:50}") int batchChunkSize,
+      @Value("${book.metadata.batch.concurrency:4}") int batchConcurrency,
+      @Value("${book.metadata.authors.maximum-size:10000}") long authorsMaximumSize,
+      @Value("${book.metadata.authors.ttl:7d}") Duration authorsTtl) {
     this.webClient = openLibraryWebClient;
+    this.metadataCache = metadataCache;
+    this.jsonMapper = jsonMapper;
+    this.responseDecoder = responseDecoder;
+    this.resilience = resilience;
+    this.batchChunkSize = batchChunkSize;
+    this.batchConcurrency = batchConcurrency;
+    this.authors =
+        Caffeine.newBuilder()
+            .maximumSize(authorsMaximumSize)
+            .expireAfterWrite(authorsTtl)
+            .buildAsync();
   }
 
+  /**
+   * Answers from the {@link BookMetadataCache} when it has the ISBN, without calling OpenLibrary.
+   * Concurrent lookups of the same ISBN share one, so OpenLibrary gets at most one request per ISBN
+   * at a time and its response or error goes to every caller.
+   *
+   * @throws WebClientResponseException.NotFound if OpenLibrary does not know the ISBN, also when
+   *     only the cache remembers that
+   */
   public BookMetadataResponse getBookByIsbn(String isbn) {
-    return webClient
-        .get()
-        .uri("/isbn/{isbn}", isbn)
-        .retrieve()
-        .bodyToMono(BookMetadataResponse.class)
-        .block();
+    String payload = lookUp(isbn).orElseThrow(() -> notFound(isbn));
+    return jsonMapper.readValue(payload, BookMetadataResponse.class);
+  }
+
+  /**
+   * Looks up many ISBNs, answering from the {@link BookMetadataCache} where it can and asking
+   * OpenLibrary's bibkeys API for the rest, {@code batch.chunk-size} ISBNs per request and at most
+   * {@code batch.concurrency} requests at a time. The responses fill the cache. ISBNs another
+   * lookup is already running for are joined instead of asked for again. A failed request fails the
+   * whole lookup.
+   *
+   * @return the metadata by requested ISBN, without the ISBNs OpenLibrary does not know
+   */
+  public Map<String, BookMetadataResponse> getBooksByIsbns(Collection<String> isbns) {
+    Map<String, CompletableFuture<Optional<String>>> lookups = new LinkedHashMap<>();
+    List<String> running = new ArrayList<>();
+    for (String isbn : new LinkedHashSet<>(isbns)) {
+      CompletableFuture<Optional<String>> lookup = new CompletableFuture<>();
+      if (lookupsInFlight.putIfAbsent(isbn, lookup) == null) {
+        lookups.put(isbn, lookup);
+      } else {
+        running.add(isbn);
+      }
+    }
+
+    Map<String, Optional<String>> payloads = new LinkedHashMap<>(runAll(lookups));
+    for (String isbn : running) {
+      payloads.put(isbn, lookUp(isbn));
+    }
+
+    Map<String, BookMetadataResponse> books = new LinkedHashMap<>();
+    payloads.forEach(
+        (isbn, payload) ->
+            payload.ifPresent(
+                selected ->
+                    books.put(isbn, jsonMapper.readValue(selected, BookMetadataResponse.class))));
+    return books;
+  }
+
+  /**
+   * Resolves the edition's author references, all of them concurrently. Up to {@code
+   * authors.maximum-size} resolved authors are kept for {@code authors.ttl}, as popular authors
+   * appear on many editions, and the least used ones are evicted first. Concurrent lookups of the
+   * same author share one, a failed one is not kept.
+   *
+   * @return the authors in the edition's order, without those OpenLibrary does not know
+   */
+  public List<AuthorMetadataResponse> getAuthors(BookMetadataResponse edition) {
+    List<CompletableFuture<AuthorMetadataResponse>> lookups =
+        edition.getAuthorKeys().stream().distinct().map(this::lookUpAuthor).toList();
+
+    List<AuthorMetadataResponse> resolved = new ArrayList<>();
+    for (CompletableFuture<AuthorMetadataResponse> lookup : lookups) {
+      try {
+        AuthorMetadataResponse author = lookup.get();
+        if (author != null) {
+          resolved.add(author);
+        }
+      } catch (ExecutionException e) {
+        throw e.getCause() instanceof RuntimeException cause
+            ? cause
+            : new IllegalStateException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while resolving authors", e);
+      }
+    }
+    return resolved;
+  }
+
+  /**
+   * Joins the cached or running lookup of the author or starts one. It runs on a virtual thread of
+   * its own, outside the cache's lock, so an interrupted caller does not fail it for the others. A
+   * lookup that failed or found no author is removed before it completes, so the next call starts
+   * over, Caffeine would only remove it after its callers were woken up.
+   */
+  private CompletableFuture<AuthorMetadataResponse> lookUpAuthor(String key) {
+    CompletableFuture<AuthorMetadataResponse> lookup = new CompletableFuture<>();
+    CompletableFuture<AuthorMetadataResponse> author = authors.get(key, (k, executor) -> lookup);
+
+    if (author == lookup) {
+      Thread.ofVirtual()
+          .start(
+              () -> {
+                try {
+                  AuthorMetadataResponse resolved = fetchAuthor(key);
+                  if (resolved == null) {
+                    authors.asMap().remove(key, lookup);
+                  }
+                  lookup.complete(resolved);
+                } catch (RuntimeException | Error e) {
+                  authors.asMap().remove(key, lookup);
+                  lookup.completeExceptionally(e);
+                }
+              });
+    }
+    return author;
+  }
+
+  /**
+   * Joins the lookup in progress for the ISBN or starts one. When the thread running a lookup is
+   * interrupted, the lookup is cancelled and one of its waiters starts over instead of failing with
+   * it. An interrupted waiter only stops waiting. The entry is removed once the lookup completed in
+   * any way, including the client's timeouts, so the next call starts a fresh one.
+   */
+  private Optional<String> lookUp(String isbn) {
+    while (true) {
+      CompletableFuture<Optional<String>> lookup = new CompletableFuture<>();
+      CompletableFuture<Optional<String>> inFlight = lookupsInFlight.putIfAbsent(isbn, lookup);
+
+      if (inFlight == null) {
+        return run(isbn, lookup);
+      }
+
+      try {
+        return inFlight.get();
+      } catch (CancellationException e) {
+        // the caller running the lookup was interrupted, try again
+      } catch (ExecutionException e) {
+        throw e.getCause() instanceof RuntimeException cause
+            ? cause
+            : new IllegalStateException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for ISBN " + isbn, e);
+      }
+    }
+  }
+
+  private Optional<String> run(String isbn, CompletableFuture<Optional<String>> lookup) {
+    try {
+      Optional<String> payload = metadataCache.get(isbn, () -> fetchByIsbn(isbn));
+      lookup.complete(payload);
+      return payload;
+    } catch (RuntimeException | Error e) {
+      if (Thread.currentThread().isInterrupted()) {
+        lookup.cancel(false);
+      } else {
+        lookup.completeExceptionally(e);
+      }
+      throw e;
+    } finally {
+      lookupsInFlight.remove(isbn, lookup);
+    }
+  }
+
+  /** Like {@link #run} for the lookups of a batch. */
+  private Map<String, Optional<String>> runAll(
+      Map<String, CompletableFuture<Optional<String>>> lookups) {
+    try {
+      Map<String, Optional<String>> payloads =
+          metadataCache.getAll(lookups.keySet(), this::fetchInChunks);
+      lookups.forEach((isbn, lookup) -> lookup.complete(payloads.get(isbn)));
+      return payloads;
+    } catch (RuntimeException | Error e) {
+      boolean interrupted = Thread.currentThread().isInterrupted();
+      for (CompletableFuture<Optional<String>> lookup : lookups.values()) {
+        if (interrupted) {
+          lookup.cancel(false);
+        } else {
+          lookup.completeExceptionally(e);
+        }
+      }
+      throw e;
+    } finally {
+      lookups.forEach(lookupsInFlight::remove);
+    }
+  }
+
+  private Optional<String> fetchByIsbn(String isbn) {
+    try {
+      return Optional.ofNullable(
+          resilience.call(
+              webClient
+                  .get()
+                  .uri("/isbn/{isbn}", isbn)
+                  .retrieve()
+                  .bodyToFlux(DataBuffer.class)
+                  .as(responseDecoder::decodeEdition)));
+    } catch (WebClientResponseException.NotFound e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @param key e.g. {@code /authors/OL5851148A}
+   * @return {@code null} if OpenLibrary does not know the author
+   */
+  private AuthorMetadataResponse fetchAuthor(String key) {
+    try {
+      return resilience.call(
+          webClient
+              .get()
+              .uri("/authors/{id}.json", key.substring(key.lastIndexOf('/') + 1))
+              .retrieve()
+              .bodyToMono(AuthorMetadataResponse.class));
+    } catch (WebClientResponseException.NotFound e) {
+      return null;
+    }
+  }
+
+  private Map<String, String> fetchInChunks(List<String> isbns) {
+    List<List<String>> chunks = new ArrayList<>();
+    for (int from = 0; from < isbns.size(); from += batchChunkSize) {
+      chunks.add(isbns.subList(from, Math.min(from + batchChunkSize, isbns.size())));
+    }
+
+    Map<String, String> payloads = new HashMap<>();
+    try (ExecutorService executor =
+        Executors.newFixedThreadPool(batchConcurrency, Thread.ofVirtual().factory())) {
+      List<Future<Map<String, String>>> lookups =
+          chunks.stream().map(chunk -> executor.submit(() -> fetchByIsbns(chunk))).toList();
+
+      for (Future<Map<String, String>> lookup : lookups) {
+        try {
+          payloads.putAll(lookup.get());
+        } catch (ExecutionException e) {
+          executor.shutdownNow();
+          throw e.getCause() instanceof RuntimeException cause
+              ? cause
+              : new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+          executor.shutdownNow();
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while looking up ISBNs", e);
+        }
+      }
+    }
+    return payloads;
+  }
+
+  /**
+   * {@code jscmd=details} wraps each edition just as {@code /isbn/{isbn}} returns it, so the
+   * selected fields of each are what {@link #fetchByIsbn} returns for it.
+   *
+   * @return the selected fields by ISBN, without the ISBNs OpenLibrary does not know
+   */
+  private Map<String, String> fetchByIsbns(List<String> isbns) {
+    String bibkeys = isbns.stream().map(isbn -> "ISBN:" + isbn).collect(Collectors.joining(","));
+    String body =
+        resilience.call(
+            webClient
+                .get()
+                .uri(
+                    uri ->
+                        uri.path("/api/books")
+                            .queryParam("bibkeys", bibkeys)
+                            .queryParam("jscmd", "details")
+                            .queryParam("format", "json")
+                            .build())
+                .retrieve()
+                .bodyToFlux(DataBuffer.class)
+                .as(responseDecoder::decodeBibkeys));
+    if (body == null) {
+      return Map.of();
+    }
+
+    JsonNode entries = jsonMapper.readTree(body);
+    Map<String, String> payloads = new HashMap<>();
+    for (String isbn : isbns) {
+      JsonNode details = entries.path("ISBN:" + isbn).path("details");
+      if (details.isObject()) {
+        payloads.put(isbn, jsonMapper.writeValueAsString(details));
+      }
+    }
+    return payloads;
+  }
+
+  private static WebClientResponseException notFound(String isbn) {
+    return WebClientResponseException.create(
+        HttpStatus.NOT_FOUND,
+        "No book with ISBN " + isbn,
+        HttpHeaders.EMPTY,
+        new byte[0],
+        null,
+        null);
   }
 }
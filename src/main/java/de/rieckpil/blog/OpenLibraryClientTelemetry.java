@@ -0,0 +1,140 @@
+package de.rieckpil.blog;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+/**
+ * Records every exchange of the OpenLibrary client once its response body has been read: the
+ * latency as {@code book.metadata.http.requests} and the body size as {@code
+ * book.metadata.http.response.size}, both with percentile histograms and tagged by method, URI
+ * template and status. The status is {@code IO_ERROR} if no response arrived and {@code CANCELLED}
+ * if the caller gave up first, e.g. a hedge that lost.
+ *
+ * <p>A share of the exchanges, {@code log-sample-rate} and adjustable at runtime through {@link
+ * OpenLibraryTelemetryEndpoint}, is logged in detail. These lines are written on Netty's event
+ * loop, so {@code logback-spring.xml} hands them to an appender that drops lines rather than
+ * waiting for the console.
+ */
+@Component
+public class OpenLibraryClientTelemetry implements ExchangeFilterFunction {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OpenLibraryClientTelemetry.class);
+
+  /** Set by {@link WebClient} for requests built from a template, which includes the base URL. */
+  private static final String URI_TEMPLATE_ATTRIBUTE = WebClient.class.getName() + ".uriTemplate";
+
+  private static final Pattern SCHEME_AND_HOST = Pattern.compile("^https?://[^/]+");
+
+  private final MeterRegistry meterRegistry;
+  private volatile double logSampleRate;
+
+  /**
+   * @param logSampleRate share of the exchanges logged in detail, between 0 and 1
+   */
+  public OpenLibraryClientTelemetry(
+      MeterRegistry meterRegistry,
+      @Value("${book.metadata.api.log-sample-rate:0.01}") double logSampleRate) {
+    this.meterRegistry = meterRegistry;
+    setLogSampleRate(logSampleRate);
+  }
+
+  public double getLogSampleRate() {
+    return logSampleRate;
+  }
+
+  public void setLogSampleRate(double logSampleRate) {
+    if (logSampleRate < 0 || logSampleRate > 1) {
+      throw new IllegalArgumentException(
+          "Log sample rate must be between 0 and 1, was " + logSampleRate);
+    }
+    this.logSampleRate = logSampleRate;
+  }
+
+  @Override
+  public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+    return Mono.defer(
+        () -> {
+          long start = System.nanoTime();
+          AtomicBoolean recorded = new AtomicBoolean();
+          return next.exchange(request)
+              .doOnError(e -> record(request, "IO_ERROR", start, 0, recorded))
+              .doOnCancel(() -> record(request, "CANCELLED", start, 0, recorded))
+              .map(response -> countBody(request, response, start, recorded));
+        });
+  }
+
+  private ClientResponse countBody(
+      ClientRequest request, ClientResponse response, long start, AtomicBoolean recorded) {
+    String status = String.valueOf(response.statusCode().value());
+    AtomicLong bytes = new AtomicLong();
+    return response
+        .mutate()
+        .body(
+            body ->
+                body.doOnNext(buffer -> bytes.addAndGet(buffer.readableByteCount()))
+                    .doOnTerminate(() -> record(request, status, start, bytes.get(), recorded))
+                    .doOnCancel(() -> record(request, "CANCELLED", start, bytes.get(), recorded)))
+        .build();
+  }
+
+  private void record(
+      ClientRequest request, String status, long start, long bytes, AtomicBoolean recorded) {
+    if (!recorded.compareAndSet(false, true)) {
+      return;
+    }
+    long nanos = System.nanoTime() - start;
+    Tags tags =
+        Tags.of("method", request.method().name(), "uri", uriTemplate(request), "status", status);
+
+    Timer.builder("book.metadata.http.requests")
+        .description("Latency of the exchanges with OpenLibrary, until the body was read")
+        .tags(tags)
+        .publishPercentileHistogram()
+        .register(meterRegistry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+    DistributionSummary.builder("book.metadata.http.response.size")
+        .description("Size of the response bodies from OpenLibrary")
+        .baseUnit("bytes")
+        .tags(tags)
+        .publishPercentileHistogram()
+        .register(meterRegistry)
+        .record(bytes);
+
+    double sampleRate = logSampleRate;
+    if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+      LOG.info(
+          "{} {} -> {} in {} ms, {} bytes",
+          request.method(),
+          request.url(),
+          status,
+          TimeUnit.NANOSECONDS.toMillis(nanos),
+          bytes);
+    }
+  }
+
+  /** The path without variables filled in, so ISBNs do not end up as tag values. */
+  private static String uriTemplate(ClientRequest request) {
+    return request
+        .attribute(URI_TEMPLATE_ATTRIBUTE)
+        .map(template -> SCHEME_AND_HOST.matcher((String) template).replaceFirst(""))
+        .orElse(request.url().getPath());
+  }
+}
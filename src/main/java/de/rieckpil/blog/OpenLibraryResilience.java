@@ -0,0 +1,398 @@
+package de.rieckpil.blog;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+/**
+ * Guards the requests to OpenLibrary, so a degraded upstream neither makes every caller wait for
+ * the client's timeouts nor ties up all of their threads.
+ *
+ * <ul>
+ *   <li>A circuit breaker opens once {@code failure-rate-threshold} percent of the last {@code
+ *       window-size} calls failed and rejects calls right away. After {@code open-duration} it lets
+ *       a single trial call through, which closes or reopens it. Responses with a 4xx status other
+ *       than 429 are no failures, OpenLibrary answered them as it should.
+ *   <li>A bulkhead bounds the calls in flight and rejects a call that finds no free slot within
+ *       {@code max-wait}.
+ *   <li>Optionally, a request still running after the recent 95th percentile of the request latency
+ *       is hedged: the same request is sent again and the first response wins. A hedge takes a free
+ *       slot of the bulkhead without waiting for one, and a token of a budget that grows by {@code
+ *       budget-percent} hundredths of a token per call, so hedges stay a bounded share of the
+ *       requests even when OpenLibrary slows down as a whole.
+ * </ul>
+ *
+ * Calls are counted as {@code book.metadata.calls} by their outcome, requests are timed as {@code
+ * book.metadata.requests} by theirs, {@code success}, {@code error} or {@code cancelled} after
+ * losing against a hedge, and hedges counted as {@code book.metadata.hedges}, those left out for
+ * lack of a slot or a token as {@code skipped}. The gauges {@code book.metadata.circuit.state}, 1
+ * for the current state, and {@code book.metadata.bulkhead.active} report the state of the circuit
+ * breaker and the bulkhead.
+ */
+@Component
+public class OpenLibraryResilience {
+
+  /** Requests timed before their 95th percentile is trusted as hedging delay. */
+  private static final int MIN_HEDGING_SAMPLES = 20;
+
+  /** Hedges the budget saves up during quiet periods at most. */
+  private static final int MAX_SAVED_HEDGES = 10;
+
+  private final CircuitBreaker circuitBreaker;
+  private final Semaphore bulkhead;
+  private final Duration bulkheadMaxWait;
+  private final boolean hedging;
+  private final Duration minHedgingDelay;
+  private final HedgingBudget hedgingBudget;
+  private final Timer successfulRequests;
+  private final Timer failedRequests;
+  private final Timer cancelledRequests;
+  private final Counter successes;
+  private final Counter failures;
+  private final Counter circuitOpenRejections;
+  private final Counter bulkheadFullRejections;
+  private final Counter hedgesSent;
+  private final Counter hedgesWon;
+  private final Counter hedgesSkipped;
+
+  /**
+   * @param minimumCalls calls the circuit breaker waits for before it computes a failure rate, at
+   *     most {@code windowSize}
+   * @param minHedgingDelay lower bound of the hedging delay, so fast requests are not all hedged
+   * @param hedgingBudgetPercent hedges per hundred calls in the long run
+   */
+  public OpenLibraryResilience(
+      MeterRegistry meterRegistry,
+      @Value("${book.metadata.circuit-breaker.failure-rate-threshold:50}") int failureRateThreshold,
+      @Value("${book.metadata.circuit-breaker.window-size:20}") int windowSize,
+      @Value("${book.metadata.circuit-breaker.minimum-calls:10}") int minimumCalls,
+      @Value("${book.metadata.circuit-breaker.open-duration:30s}") Duration openDuration,
+      @Value("${book.metadata.bulkhead.max-concurrent-calls:16}") int maxConcurrentCalls,
+      @Value("${book.metadata.bulkhead.max-wait:500ms}") Duration bulkheadMaxWait,
+      @Value("${book.metadata.hedging.enabled:false}") boolean hedging,
+      @Value("${book.metadata.hedging.min-delay:50ms}") Duration minHedgingDelay,
+      @Value("${book.metadata.hedging.budget-percent:10}") int hedgingBudgetPercent) {
+    this.circuitBreaker =
+        new CircuitBreaker(failureRateThreshold, windowSize, minimumCalls, openDuration);
+    this.bulkhead = new Semaphore(maxConcurrentCalls);
+    this.bulkheadMaxWait = bulkheadMaxWait;
+    this.hedging = hedging;
+    this.minHedgingDelay = minHedgingDelay;
+    this.hedgingBudget = new HedgingBudget(hedgingBudgetPercent);
+    this.successfulRequests = requestTimer("success", meterRegistry);
+    this.failedRequests = requestTimer("error", meterRegistry);
+    this.cancelledRequests = requestTimer("cancelled", meterRegistry);
+    this.successes = callCounter("success", meterRegistry);
+    this.failures = callCounter("failure", meterRegistry);
+    this.circuitOpenRejections = callCounter("circuit_open", meterRegistry);
+    this.bulkheadFullRejections = callCounter("bulkhead_full", meterRegistry);
+    this.hedgesSent = hedgeCounter("sent", meterRegistry);
+    this.hedgesWon = hedgeCounter("won", meterRegistry);
+    this.hedgesSkipped = hedgeCounter("skipped", meterRegistry);
+
+    for (State state : State.values()) {
+      Gauge.builder("book.metadata.circuit.state", circuitBreaker, cb -> cb.state == state ? 1 : 0)
+          .description("Whether the circuit breaker for OpenLibrary is in this state")
+          .tag("state", state.name().toLowerCase(Locale.ROOT))
+          .register(meterRegistry);
+    }
+    Gauge.builder(
+            "book.metadata.bulkhead.active",
+            bulkhead,
+            slots -> maxConcurrentCalls - slots.availablePermits())
+        .description("Calls to OpenLibrary in flight")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Subscribes to the request, a second time for a hedge, and waits for its result.
+   *
+   * @throws OpenLibraryUnavailableException if the circuit breaker is open or the bulkhead stayed
+   *     full for its maximum wait
+   */
+  public <T> T call(Mono<T> request) {
+    Permission permission = circuitBreaker.acquirePermission();
+    if (permission == Permission.DENIED) {
+      circuitOpenRejections.increment();
+      throw new OpenLibraryUnavailableException("circuit breaker is open");
+    }
+
+    boolean entered = false;
+    try {
+      entered = bulkhead.tryAcquire(bulkheadMaxWait.toNanos(), TimeUnit.NANOSECONDS);
+      if (!entered) {
+        bulkheadFullRejections.increment();
+        throw new OpenLibraryUnavailableException("too many calls in flight");
+      }
+
+      if (hedging) {
+        hedgingBudget.deposit();
+      }
+      T result = hedged(timed(request)).block();
+      circuitBreaker.record(permission, false);
+      successes.increment();
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the bulkhead", e);
+    } catch (RuntimeException e) {
+      // an interrupted caller tells nothing about OpenLibrary, neither do rejections
+      if (entered && !Thread.currentThread().isInterrupted()) {
+        boolean failed = countsAsFailure(e);
+        circuitBreaker.record(permission, failed);
+        (failed ? failures : successes).increment();
+      }
+      throw e;
+    } finally {
+      circuitBreaker.release(permission);
+      if (entered) {
+        bulkhead.release();
+      }
+    }
+  }
+
+  private <T> Mono<T> timed(Mono<T> request) {
+    return Mono.defer(
+        () -> {
+          long start = System.nanoTime();
+          return request
+              .doOnSuccess(result -> record(successfulRequests, start))
+              .doOnError(error -> record(failedRequests, start))
+              .doOnCancel(() -> record(cancelledRequests, start));
+        });
+  }
+
+  private static void record(Timer timer, long start) {
+    timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  private <T> Mono<T> hedged(Mono<T> request) {
+    Duration delay = hedgingDelay();
+    if (delay == null) {
+      return request;
+    }
+    // a hedge that is not sent must never signal, an empty completion would win the race
+    Mono<T> hedge =
+        Mono.delay(delay)
+            .flatMap(
+                tick ->
+                    startHedge()
+                        ? request
+                            .doOnNext(result -> hedgesWon.increment())
+                            .doFinally(signal -> bulkhead.release())
+                        : Mono.never());
+    return Mono.firstWithSignal(request, hedge);
+  }
+
+  /** Takes a slot of the bulkhead and a token of the budget for a hedge, or neither. */
+  private boolean startHedge() {
+    if (bulkhead.tryAcquire()) {
+      if (hedgingBudget.withdraw()) {
+        hedgesSent.increment();
+        return true;
+      }
+      bulkhead.release();
+    }
+    hedgesSkipped.increment();
+    return false;
+  }
+
+  /**
+   * @return the recent 95th percentile of the latency of successful requests, {@code null} to not
+   *     hedge
+   */
+  private Duration hedgingDelay() {
+    if (!hedging || successfulRequests.count() < MIN_HEDGING_SAMPLES) {
+      return null;
+    }
+    for (ValueAtPercentile percentile : successfulRequests.takeSnapshot().percentileValues()) {
+      if (percentile.percentile() == 0.95) {
+        Duration p95 = Duration.ofNanos((long) percentile.value(TimeUnit.NANOSECONDS));
+        return p95.compareTo(minHedgingDelay) > 0 ? p95 : minHedgingDelay;
+      }
+    }
+    return null;
+  }
+
+  private static boolean countsAsFailure(RuntimeException e) {
+    return !(e instanceof WebClientResponseException response
+        && response.getStatusCode().is4xxClientError()
+        && response.getStatusCode().value() != 429);
+  }
+
+  private static Timer requestTimer(String outcome, MeterRegistry meterRegistry) {
+    return Timer.builder("book.metadata.requests")
+        .description("Latency of single requests to OpenLibrary, hedges included")
+        .tag("outcome", outcome)
+        .publishPercentiles(0.95)
+        .register(meterRegistry);
+  }
+
+  private static Counter callCounter(String outcome, MeterRegistry meterRegistry) {
+    return Counter.builder("book.metadata.calls")
+        .description("Calls to OpenLibrary by their outcome, rejections included")
+        .tag("outcome", outcome)
+        .register(meterRegistry);
+  }
+
+  private static Counter hedgeCounter(String outcome, MeterRegistry meterRegistry) {
+    return Counter.builder("book.metadata.hedges")
+        .description("Hedged requests to OpenLibrary, and how many answered first")
+        .tag("outcome", outcome)
+        .register(meterRegistry);
+  }
+
+  private enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private enum Permission {
+    DENIED,
+    GRANTED,
+    TRIAL
+  }
+
+  /** Token bucket in thousandths of a hedge. */
+  private static final class HedgingBudget {
+
+    private static final long HEDGE = 1000;
+
+    private final long perCall;
+    private final AtomicLong balance = new AtomicLong();
+
+    HedgingBudget(int percent) {
+      this.perCall = percent * HEDGE / 100;
+    }
+
+    void deposit() {
+      balance.updateAndGet(tokens -> Math.min(tokens + perCall, MAX_SAVED_HEDGES * HEDGE));
+    }
+
+    boolean withdraw() {
+      long tokens;
+      do {
+        tokens = balance.get();
+        if (tokens < HEDGE) {
+          return false;
+        }
+      } while (!balance.compareAndSet(tokens, tokens - HEDGE));
+      return true;
+    }
+  }
+
+  /** Count based, remembers whether each of the last {@code windowSize} calls failed. */
+  private static final class CircuitBreaker {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final boolean[] window;
+    private int calls;
+    private int failedCalls;
+    private int next;
+    private long openedAt;
+    private boolean trialInFlight;
+    private volatile State state = State.CLOSED;
+
+    CircuitBreaker(
+        int failureRateThreshold, int windowSize, int minimumCalls, Duration openDuration) {
+      this.failureRateThreshold = failureRateThreshold;
+      this.minimumCalls = Math.min(minimumCalls, windowSize);
+      this.openNanos = openDuration.toNanos();
+      this.window = new boolean[windowSize];
+    }
+
+    Permission acquirePermission() {
+      lock.lock();
+      try {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+          state = State.HALF_OPEN;
+        }
+        return switch (state) {
+          case CLOSED -> Permission.GRANTED;
+          case OPEN -> Permission.DENIED;
+          case HALF_OPEN -> {
+            if (trialInFlight) {
+              yield Permission.DENIED;
+            }
+            trialInFlight = true;
+            yield Permission.TRIAL;
+          }
+        };
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Closes or reopens after a trial call, otherwise counts the call while closed. */
+    void record(Permission permission, boolean failed) {
+      lock.lock();
+      try {
+        if (permission == Permission.TRIAL) {
+          if (failed) {
+            open();
+          } else {
+            reset();
+            state = State.CLOSED;
+          }
+        } else if (state == State.CLOSED) {
+          if (calls == window.length) {
+            failedCalls -= window[next] ? 1 : 0;
+          } else {
+            calls++;
+          }
+          window[next] = failed;
+          failedCalls += failed ? 1 : 0;
+          next = (next + 1) % window.length;
+
+          if (calls >= minimumCalls && failedCalls * 100 >= failureRateThreshold * calls) {
+            open();
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Lets the next trial call through, in case this one ended without a result. */
+    void release(Permission permission) {
+      if (permission == Permission.TRIAL) {
+        lock.lock();
+        try {
+          trialInFlight = false;
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+
+    private void open() {
+      reset();
+      openedAt = System.nanoTime();
+      state = State.OPEN;
+    }
+
+    private void reset() {
+      calls = 0;
+      failedCalls = 0;
+      next = 0;
+      trialInFlight = false;
+    }
+  }
+}
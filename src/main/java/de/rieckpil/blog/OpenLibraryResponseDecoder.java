@@ -0,0 +1,239 @@
+package de.rieckpil.blog;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.async.ByteBufferFeeder;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Parses OpenLibrary responses while their body arrives and keeps only the edition fields listed in
+ * {@code fields}, with at most {@code max-array-elements} elements per array except {@code
+ * authors}. Everything else, e.g. the table of contents or the source records, is skipped token by
+ * token without being bound, so only the chunk at hand and the kept fields are held in memory,
+ * never the whole body. The result is the kept fields as JSON, which {@link BookMetadataCache}
+ * stores and {@link BookMetadataResponse} binds. Keeping more than {@code max-in-memory-size} of
+ * them fails with a {@link DataBufferLimitException}, like Spring's codecs do.
+ */
+@Component
+public class OpenLibraryResponseDecoder {
+
+  /** Arrays kept whole, a truncated author list would silently drop co-authors. */
+  private static final Set<String> UNCAPPED_ARRAYS = Set.of("authors");
+
+  private final JsonMapper jsonMapper;
+  private final Set<String> fields;
+  private final int maxArrayElements;
+  private final int maxInMemorySize;
+
+  /**
+   * @param fields top-level edition fields to keep, by default those {@link BookMetadataResponse}
+   *     binds
+   */
+  public OpenLibraryResponseDecoder(
+      JsonMapper jsonMapper,
+      @Value(
+              "${book.metadata.api.fields:key,title,isbn_13,isbn_10,publish_date,publishers,"
+                  + "authors,number_of_pages,physical_format,description,subjects,covers}")
+          Set<String> fields,
+      @Value("${book.metadata.api.max-array-elements:20}") int maxArrayElements,
+      @Value("${book.metadata.api.max-in-memory-size:256KB}") DataSize maxInMemorySize) {
+    this.jsonMapper = jsonMapper;
+    this.fields = Set.copyOf(fields);
+    this.maxArrayElements = maxArrayElements;
+    this.maxInMemorySize = Math.toIntExact(maxInMemorySize.toBytes());
+  }
+
+  /** Decodes an edition as {@code /isbn/{isbn}} returns it. */
+  public Mono<String> decodeEdition(Flux<DataBuffer> body) {
+    return decode(body, false);
+  }
+
+  /** Decodes {@code /api/books?jscmd=details}, which wraps each edition as {@code details}. */
+  public Mono<String> decodeBibkeys(Flux<DataBuffer> body) {
+    return decode(body, true);
+  }
+
+  private Mono<String> decode(Flux<DataBuffer> body, boolean bibkeys) {
+    return Mono.using(
+        () -> new Selection(bibkeys),
+        selection ->
+            body.doOnNext(
+                    buffer -> {
+                      try (DataBuffer.ByteBufferIterator chunks = buffer.readableByteBuffers()) {
+                        chunks.forEachRemaining(selection::feed);
+                      } finally {
+                        DataBufferUtils.release(buffer);
+                      }
+                    })
+                .then(Mono.fromCallable(selection::finish)),
+        Selection::close);
+  }
+
+  /**
+   * Copies the tokens of one response, leaving out the fields not asked for. Tracks the nesting
+   * itself, the non-blocking parser cannot skip a value that has not fully arrived yet.
+   */
+  private final class Selection implements AutoCloseable {
+
+    private final boolean bibkeys;
+    private final JsonParser parser;
+    private final ByteBufferFeeder feeder;
+    private final CappedWriter output;
+    private final JsonGenerator generator;
+    private boolean empty = true;
+
+    /** Open objects and arrays. */
+    private int depth;
+
+    /** Depth of the edition's fields, -1 outside an edition. */
+    private int editionDepth = -1;
+
+    /** Depth the value being skipped started at, -1 if none is. */
+    private int skipDepth = -1;
+
+    private boolean skipNextValue;
+
+    /** Depth of the elements of a kept array, -1 outside one. */
+    private int arrayDepth = -1;
+
+    private int arrayElements;
+
+    Selection(boolean bibkeys) {
+      this.bibkeys = bibkeys;
+      this.parser = jsonMapper.createNonBlockingByteBufferParser();
+      this.feeder = (ByteBufferFeeder) parser.nonBlockingInputFeeder();
+      this.output = new CappedWriter(maxInMemorySize);
+      this.generator = jsonMapper.createGenerator(output);
+    }
+
+    void feed(ByteBuffer chunk) {
+      feeder.feedInput(chunk);
+      drain();
+    }
+
+    /**
+     * @return the kept fields as JSON, {@code null} for an empty body
+     */
+    String finish() {
+      feeder.endOfInput();
+      drain();
+      generator.flush();
+      return empty ? null : output.toString();
+    }
+
+    private void drain() {
+      JsonToken token;
+      while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+        empty = false;
+        handle(token);
+      }
+    }
+
+    private void handle(JsonToken token) {
+      if (skipNextValue) {
+        skipNextValue = false;
+        skipDepth = depth;
+      } else if (arrayDepth == depth && token != JsonToken.END_ARRAY) {
+        if (arrayElements++ >= maxArrayElements) {
+          skipDepth = depth;
+        }
+      }
+
+      if (skipDepth >= 0) {
+        track(token);
+        if (depth == skipDepth) {
+          skipDepth = -1;
+        }
+        return;
+      }
+
+      if (token == JsonToken.PROPERTY_NAME
+          && depth == editionDepth
+          && !fields.contains(parser.currentName())) {
+        skipNextValue = true;
+        return;
+      }
+      if (token == JsonToken.START_OBJECT && editionDepth < 0 && startsEdition()) {
+        editionDepth = depth + 1;
+      } else if (token == JsonToken.END_OBJECT && depth == editionDepth) {
+        editionDepth = -1;
+      } else if (token == JsonToken.START_ARRAY
+          && depth == editionDepth
+          && !UNCAPPED_ARRAYS.contains(parser.currentName())) {
+        arrayDepth = depth + 1;
+        arrayElements = 0;
+      } else if (token == JsonToken.END_ARRAY && depth == arrayDepth) {
+        arrayDepth = -1;
+      }
+
+      generator.copyCurrentEvent(parser);
+      track(token);
+    }
+
+    /** The response itself, or the {@code details} of one of the requested ISBNs. */
+    private boolean startsEdition() {
+      return bibkeys ? depth == 2 && "details".equals(parser.currentName()) : depth == 0;
+    }
+
+    private void track(JsonToken token) {
+      if (token.isStructStart()) {
+        depth++;
+      } else if (token.isStructEnd()) {
+        depth--;
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        generator.close();
+      } finally {
+        parser.close();
+      }
+    }
+  }
+
+  /** Fails once more than the limit was written, the generator flushes in chunks. */
+  private static final class CappedWriter extends Writer {
+
+    private final StringBuilder content = new StringBuilder();
+    private final int limit;
+
+    CappedWriter(int limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+      if (content.length() + length > limit) {
+        throw new DataBufferLimitException(
+            "Selected fields exceed the limit of " + limit + " characters");
+      }
+      content.append(chars, offset, length);
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public String toString() {
+      return content.toString();
+    }
+  }
+}
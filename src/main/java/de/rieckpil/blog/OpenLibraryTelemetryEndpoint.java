@@ -0,0 +1,38 @@
+package de.rieckpil.blog;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/openlibrarytelemetry} reads and changes the share of the OpenLibrary exchanges
+ * that {@link OpenLibraryClientTelemetry} logs, e.g. raised while investigating slow lookups.
+ */
+@Component
+@Endpoint(id = "openlibrarytelemetry")
+public class OpenLibraryTelemetryEndpoint {
+
+  private final OpenLibraryClientTelemetry telemetry;
+
+  public OpenLibraryTelemetryEndpoint(OpenLibraryClientTelemetry telemetry) {
+    this.telemetry = telemetry;
+  }
+
+  @ReadOperation
+  public Map<String, Double> logSampleRate() {
+    return Map.of("logSampleRate", telemetry.getLogSampleRate());
+  }
+
+  @WriteOperation
+  public void setLogSampleRate(double logSampleRate) {
+    try {
+      telemetry.setLogSampleRate(logSampleRate);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+    }
+  }
+}
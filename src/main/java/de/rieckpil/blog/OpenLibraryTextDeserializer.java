@@ -0,0 +1,22 @@
+package de.rieckpil.blog;
+
+import tools.jackson.core.JsonParser;
+import tools.jackson.databind.DeserializationContext;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ValueDeserializer;
+
+/**
+ * Reads an OpenLibrary text field, which is either a plain string or a typed value such as {@code
+ * {"type": "/type/text", "value": "..."}}, as its text.
+ */
+class OpenLibraryTextDeserializer extends ValueDeserializer<String> {
+
+  @Override
+  public String deserialize(JsonParser parser, DeserializationContext context) {
+    JsonNode node = context.readTree(parser);
+    if (node.isObject()) {
+      node = node.path("value");
+    }
+    return node.isValueNode() && !node.isNull() ? node.asString() : null;
+  }
+}
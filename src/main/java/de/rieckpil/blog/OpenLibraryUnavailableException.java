@@ -0,0 +1,13 @@
+package de.rieckpil.blog;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/** Exception thrown when a call to OpenLibrary is rejected without being sent. */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class OpenLibraryUnavailableException extends RuntimeException {
+
+  public OpenLibraryUnavailableException(String reason) {
+    super("OpenLibrary call rejected: " + reason);
+  }
+}
@@ -0,0 +1,60 @@
+package de.rieckpil.blog;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.Set;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Sends the reads of a client to the primary for a while after the client wrote, so it does not
+ * miss its own changes while the replicas catch up. Clients are told apart by their user name.
+ * Anonymous clients cannot write, see {@link SecurityConfig}, and are never pinned: their address
+ * would lump together every client behind the same NAT or proxy. The write is recorded before the
+ * request is processed, so a read following right after the response already sees it.
+ */
+class ReadYourWritesFilter extends OncePerRequestFilter {
+
+  private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS", "TRACE");
+
+  private final Cache<String, Boolean> recentWriters;
+
+  ReadYourWritesFilter(Duration window) {
+    this.recentWriters = Caffeine.newBuilder().expireAfterWrite(window).build();
+  }
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    Principal principal = request.getUserPrincipal();
+    if (principal == null) {
+      filterChain.doFilter(request, response);
+      return;
+    }
+    String client = principal.getName();
+
+    if (!SAFE_METHODS.contains(request.getMethod())) {
+      recentWriters.put(client, Boolean.TRUE);
+    }
+
+    if (recentWriters.getIfPresent(client) == null) {
+      filterChain.doFilter(request, response);
+      return;
+    }
+
+    ReplicaRoutingDataSource.pinToPrimary();
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      ReplicaRoutingDataSource.unpin();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package de.rieckpil.blog;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * Hands out connections for read-only transactions. Reads are spread round-robin over the replica
+ * pools, unless the current thread is pinned to the primary because its client wrote recently.
+ */
+class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+  private static final String PRIMARY = "primary";
+
+  private static final ThreadLocal<Boolean> PINNED_TO_PRIMARY = new ThreadLocal<>();
+
+  private final List<HikariDataSource> replicas;
+  private final AtomicInteger nextReplica = new AtomicInteger();
+
+  ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicas) {
+    this.replicas = replicas;
+
+    Map<Object, Object> targetDataSources = new HashMap<>();
+    targetDataSources.put(PRIMARY, primary);
+    for (int i = 0; i < replicas.size(); i++) {
+      targetDataSources.put(i, replicas.get(i));
+    }
+    setTargetDataSources(targetDataSources);
+    setDefaultTargetDataSource(primary);
+    setLenientFallback(false);
+  }
+
+  static void pinToPrimary() {
+    PINNED_TO_PRIMARY.set(Boolean.TRUE);
+  }
+
+  static void unpin() {
+    PINNED_TO_PRIMARY.remove();
+  }
+
+  static boolean isPinnedToPrimary() {
+    return PINNED_TO_PRIMARY.get() != null;
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    if (isPinnedToPrimary()) {
+      return PRIMARY;
+    }
+    return Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+  }
+
+  /** Closes the replica pools, the primary pool is a bean of its own. */
+  @Override
+  public void close() {
+    replicas.forEach(HikariDataSource::close);
+  }
+}
@@ -0,0 +1,12 @@
+package de.rieckpil.blog;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Runs {@code @Scheduled} jobs such as the {@link BookEnrichmentWorker}. Kept apart from the
+ * application class so sliced tests do not start them.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {}
@@ -0,0 +1,49 @@
+package de.rieckpil.blog;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Tells whether a read may have been served by a replica that did not apply the latest book write
+ * yet. Such reads are fine to return, but must not be cached: a cache would keep serving them long
+ * after the replica caught up. Without replicas, or on a thread pinned to the primary by {@link
+ * ReadYourWritesFilter}, no read is stale.
+ *
+ * <p>Replicas are assumed to catch up within {@code book.datasource.read-your-writes-window}, the
+ * same window the filter pins writers for. Every path that writes books, {@link BookService} and
+ * the {@link BookEnrichmentWorker}, records its writes once they committed.
+ */
+@Component
+public class StaleReadGuard {
+
+  private final long windowNanos;
+  private final AtomicLong lastWriteNanos;
+
+  public StaleReadGuard(
+      @Value("${book.datasource.replica-urls:}") String replicaUrls,
+      @Value("${book.datasource.read-your-writes-window:5s}") Duration window) {
+    this.windowNanos = StringUtils.hasText(replicaUrls) ? window.toNanos() : 0;
+    this.lastWriteNanos = new AtomicLong(System.nanoTime() - windowNanos);
+  }
+
+  /** Records that a book write committed just now. */
+  public void recordWrite() {
+    lastWriteNanos.set(System.nanoTime());
+  }
+
+  /**
+   * @param readStartNanos {@link System#nanoTime()} before the read ran on the current thread
+   * @return whether the read may miss a write, because it ran on a replica within the window after
+   *     it
+   */
+  public boolean mayBeStale(long readStartNanos) {
+    if (windowNanos == 0 || ReplicaRoutingDataSource.isPinnedToPrimary()) {
+      return false;
+    }
+    return readStartNanos - lastWriteNanos.get() < windowNanos;
+  }
+}
@@ -12,21 +12,62 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
-import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 @Configuration
 public class WebClientConfig {
 
+  /**
+   * Connections to OpenLibrary, kept apart from Reactor Netty's global pool so they can be sized
+   * and observed on their own. A request that finds all connections busy waits in a bounded queue
+   * for at most the pending acquire timeout, instead of the default 45 seconds. Idle connections
+   * are closed before OpenLibrary's proxies drop them, so a request rarely picks a dead one.
+   *
+   * <p>The pool publishes {@code reactor.netty.connection.provider.*} metrics to Micrometer's
+   * global registry, which Spring Boot adds its registry to: active, idle and pending connections,
+   * and the time waited for a connection as {@code pending.connections.time}.
+   */
+  @Bean(destroyMethod = "dispose")
+  public ConnectionProvider openLibraryConnectionProvider(
+      @Value("${book.metadata.api.pool.max-connections:32}") int maxConnections,
+      @Value("${book.metadata.api.pool.pending-acquire-max-count:64}") int pendingAcquireMaxCount,
+      @Value("${book.metadata.api.pool.pending-acquire-timeout:2s}") Duration pendingAcquireTimeout,
+      @Value("${book.metadata.api.pool.max-idle-time:20s}") Duration maxIdleTime,
+      @Value("${book.metadata.api.pool.max-life-time:5m}") Duration maxLifeTime,
+      @Value("${book.metadata.api.pool.eviction-interval:10s}") Duration evictionInterval) {
+    return ConnectionProvider.builder("openlibrary")
+        .maxConnections(maxConnections)
+        .pendingAcquireMaxCount(pendingAcquireMaxCount)
+        .pendingAcquireTimeout(pendingAcquireTimeout)
+        .maxIdleTime(maxIdleTime)
+        .maxLifeTime(maxLifeTime)
+        .evictInBackground(evictionInterval)
+        .metrics(true)
+        .build();
+  }
+
+  /**
+   * @param http2 negotiates HTTP/2 over TLS, so concurrent requests share a few connections
+   */
   @Bean
   public WebClient openLibraryWebClient(
+      ConnectionProvider openLibraryConnectionProvider,
+      OpenLibraryClientTelemetry openLibraryClientTelemetry,
       @Value("${book.metadata.api.url:https://openlibrary.org}") String baseUrl,
-      @Value("${book.metadata.api.timeout:5}") int timeoutSeconds) {
+      @Value("${book.metadata.api.timeout:5}") int timeoutSeconds,
+      @Value("${book.metadata.api.http2:false}") boolean http2,
+      @Value("${book.metadata.api.max-in-memory-size:256KB}") DataSize maxInMemorySize) {
 
     HttpClient httpClient =
-        HttpClient.create()
+        HttpClient.create(openLibraryConnectionProvider)
+            .protocol(
+                http2
+                    ? new HttpProtocol[] {HttpProtocol.H2, HttpProtocol.HTTP11}
+                    : new HttpProtocol[] {HttpProtocol.HTTP11})
             .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeoutSeconds * 1000)
             .responseTimeout(Duration.ofSeconds(timeoutSeconds))
             .doOnConnected(
@@ -38,20 +79,13 @@ public class WebClientConfig {
         .baseUrl(baseUrl)
         .clientConnector(new ReactorClientHttpConnector(httpClient))
         .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-        .filter(logRequest())
+        .filter(openLibraryClientTelemetry)
         .codecs(
             configurer ->
                 configurer
                     .defaultCodecs()
-                    .maxInMemorySize(16 * 1024 * 1024)) // 16MB buffer for larger responses
+                    // bodies are decoded while streaming, this only bounds e.g. error bodies
+                    .maxInMemorySize(Math.toIntExact(maxInMemorySize.toBytes())))
         .build();
   }
-
-  private ExchangeFilterFunction logRequest() {
-    return ExchangeFilterFunction.ofRequestProcessor(
-        clientRequest -> {
-          System.out.println("Request: " + clientRequest.method() + " " + clientRequest.url());
-          return Mono.just(clientRequest);
-        });
-  }
 }
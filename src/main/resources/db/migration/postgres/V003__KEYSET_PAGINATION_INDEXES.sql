@@ -0,0 +1,3 @@
+-- Support keyset pagination of the book listing for every sortable column, the id acts as tiebreaker
+CREATE INDEX IF NOT EXISTS idx_books_title_id ON books (title, id);
+CREATE INDEX IF NOT EXISTS idx_books_published_date_id ON books (published_date, id);
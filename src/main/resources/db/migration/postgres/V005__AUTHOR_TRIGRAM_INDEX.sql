@@ -0,0 +1,4 @@
+-- Trigram index for case-insensitive substring (ILIKE '%...%') and similarity searches on the author
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX IF NOT EXISTS idx_books_author_trgm ON books USING GIN (author gin_trgm_ops);
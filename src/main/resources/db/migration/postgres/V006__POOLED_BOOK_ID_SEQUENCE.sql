@@ -0,0 +1,3 @@
+-- Hibernate reserves ids in blocks of 50 (pooled optimizer) instead of relying on IDENTITY, which
+-- makes JDBC insert batching possible. The column default stays in place for plain SQL inserts.
+ALTER SEQUENCE books_id_seq INCREMENT BY 50;
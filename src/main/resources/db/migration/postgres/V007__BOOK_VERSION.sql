@@ -0,0 +1,2 @@
+-- Version for optimistic locking, exposed to clients as the ETag of a book
+ALTER TABLE books ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,75 @@
+-- Number of books per status, maintained by statement-level triggers in the writing transaction.
+-- Each status is spread over 16 stripes so concurrent writers rarely wait for the same row lock;
+-- a transaction always uses the stripe of its backend and the total is the sum over all stripes.
+CREATE TABLE IF NOT EXISTS book_status_counters (
+  status VARCHAR(20) NOT NULL,
+  stripe SMALLINT NOT NULL,
+  book_count BIGINT NOT NULL DEFAULT 0,
+  PRIMARY KEY (status, stripe)
+);
+
+INSERT INTO book_status_counters (status, stripe)
+SELECT status, stripe
+FROM unnest(ARRAY['AVAILABLE', 'BORROWED', 'RESERVED', 'MAINTENANCE']) AS status,
+     generate_series(0, 15) AS stripe;
+
+UPDATE book_status_counters c
+SET book_count = b.book_count
+FROM (SELECT status, COUNT(*) AS book_count FROM books GROUP BY status) b
+WHERE c.status = b.status AND c.stripe = 0;
+
+-- Transition tables only exist for the operations their trigger declares them for, hence one branch each
+CREATE OR REPLACE FUNCTION count_book_statuses() RETURNS TRIGGER AS $$
+DECLARE
+  own_stripe SMALLINT := pg_backend_pid() % 16;
+BEGIN
+  IF TG_OP = 'INSERT' THEN
+    UPDATE book_status_counters c
+    SET book_count = c.book_count + d.delta
+    FROM (SELECT status, COUNT(*) AS delta FROM new_books GROUP BY status) d
+    WHERE c.status = d.status AND c.stripe = own_stripe;
+  ELSIF TG_OP = 'DELETE' THEN
+    UPDATE book_status_counters c
+    SET book_count = c.book_count - d.delta
+    FROM (SELECT status, COUNT(*) AS delta FROM old_books GROUP BY status) d
+    WHERE c.status = d.status AND c.stripe = own_stripe;
+  ELSE
+    UPDATE book_status_counters c
+    SET book_count = c.book_count + d.delta
+    FROM (
+      SELECT status, SUM(delta) AS delta
+      FROM (SELECT status, 1 AS delta FROM new_books
+            UNION ALL
+            SELECT status, -1 AS delta FROM old_books) changes
+      GROUP BY status
+      HAVING SUM(delta) <> 0
+    ) d
+    WHERE c.status = d.status AND c.stripe = own_stripe;
+  END IF;
+
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION reset_book_status_counters() RETURNS TRIGGER AS $$
+BEGIN
+  UPDATE book_status_counters SET book_count = 0 WHERE book_count <> 0;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER books_count_inserted_statuses
+  AFTER INSERT ON books REFERENCING NEW TABLE AS new_books
+  FOR EACH STATEMENT EXECUTE FUNCTION count_book_statuses();
+
+CREATE TRIGGER books_count_updated_statuses
+  AFTER UPDATE ON books REFERENCING OLD TABLE AS old_books NEW TABLE AS new_books
+  FOR EACH STATEMENT EXECUTE FUNCTION count_book_statuses();
+
+CREATE TRIGGER books_count_deleted_statuses
+  AFTER DELETE ON books REFERENCING OLD TABLE AS old_books
+  FOR EACH STATEMENT EXECUTE FUNCTION count_book_statuses();
+
+CREATE TRIGGER books_reset_status_counters
+  AFTER TRUNCATE ON books
+  FOR EACH STATEMENT EXECUTE FUNCTION reset_book_status_counters();
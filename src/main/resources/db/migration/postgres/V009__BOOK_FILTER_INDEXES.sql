@@ -0,0 +1,12 @@
+-- Support the filtered listing, which is keyset-paginated by (published_date, id).
+-- Most books are available, so that status gets a partial index without the status column, and the
+-- other statuses share a composite one. Filters on the date range alone use idx_books_published_date_id.
+CREATE INDEX IF NOT EXISTS idx_books_available_published_date_id
+  ON books (published_date, id) WHERE status = 'AVAILABLE';
+CREATE INDEX IF NOT EXISTS idx_books_status_published_date_id
+  ON books (status, published_date, id) WHERE status <> 'AVAILABLE';
+
+-- Case-insensitive author prefix ranges, compared in code point order so they do not depend on the
+-- database locale
+CREATE INDEX IF NOT EXISTS idx_books_author_prefix
+  ON books (lower(author) COLLATE "C", published_date, id);
@@ -0,0 +1,8 @@
+-- Raw OpenLibrary responses by ISBN, the persistent tier of the metadata cache.
+-- A NULL payload records that OpenLibrary answered 404 for the ISBN.
+CREATE TABLE IF NOT EXISTS book_metadata_cache (
+  isbn VARCHAR(20) PRIMARY KEY,
+  payload TEXT,
+  fetched_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  expires_at TIMESTAMPTZ NOT NULL
+);
@@ -0,0 +1,18 @@
+-- Outbox of books still to be enriched with OpenLibrary metadata, written by the statement that inserts the book.
+-- A worker leases a job by moving next_attempt_at past its lookup, so a job whose worker died becomes due again.
+-- Jobs that failed too often stay as dead letters with their last error and are no longer picked up.
+CREATE TABLE IF NOT EXISTS book_enrichment_jobs (
+  id BIGSERIAL PRIMARY KEY,
+  book_id BIGINT NOT NULL REFERENCES books (id) ON DELETE CASCADE,
+  isbn VARCHAR(20) NOT NULL,
+  attempts INT NOT NULL DEFAULT 0,
+  next_attempt_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  last_error TEXT,
+  dead_lettered_at TIMESTAMPTZ,
+  created_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS idx_book_enrichment_jobs_due
+  ON book_enrichment_jobs (next_attempt_at) WHERE dead_lettered_at IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_book_enrichment_jobs_book_id ON book_enrichment_jobs (book_id);
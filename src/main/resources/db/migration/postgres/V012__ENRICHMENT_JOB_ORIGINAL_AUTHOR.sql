@@ -0,0 +1,8 @@
+-- The author a book was created with, the worker only replaces the author with OpenLibrary's names while the book still has it.
+-- Jobs queued before keep the book's current author, which nobody can have corrected through the worker yet.
+ALTER TABLE book_enrichment_jobs ADD COLUMN original_author VARCHAR(255);
+
+UPDATE book_enrichment_jobs
+SET original_author = books.author
+FROM books
+WHERE books.id = book_enrichment_jobs.book_id;
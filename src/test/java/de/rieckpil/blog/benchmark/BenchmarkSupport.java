@@ -0,0 +1,85 @@
+package de.rieckpil.blog.benchmark;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.postgresql.PostgreSQLContainer;
+
+/**
+ * Shared infrastructure for the database benchmarks: a PostgreSQL container, bulk seeding of the
+ * books table and latency/allocation measurement.
+ *
+ * <p>Benchmarks are named {@code *Benchmark} so neither Surefire nor Failsafe pick them up during a
+ * regular build. Run them explicitly, e.g. {@code ./mvnw test -Dtest=BookPaginationBenchmark}.
+ */
+@Testcontainers
+@SpringBootTest
+abstract class BenchmarkSupport {
+
+  @Container @ServiceConnection
+  static PostgreSQLContainer postgres =
+      new PostgreSQLContainer("postgres:16-alpine")
+          .withDatabaseName("testdb")
+          .withUsername("test")
+          .withPassword("test")
+          .withInitScript("init-postgres.sql");
+
+  @Autowired protected JdbcTemplate jdbcTemplate;
+
+  /**
+   * Grows the books table to the given number of rows and refreshes the planner statistics. Titles
+   * combine two of 16 words plus a random token, so a single word matches about 1/8 and a word pair
+   * about 1/128 of the books. Ids are dense and the sequence continues after the highest one.
+   */
+  protected void seedBooksUpTo(int count) {
+    Integer existing = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM books", Integer.class);
+
+    jdbcTemplate.update(
+        """
+        INSERT INTO books (id, isbn, title, author, published_date, status, description)
+        SELECT n,
+               'bench-' || n,
+               words[1 + n % 16] || ' ' || words[1 + (n / 16) % 16] || ' ' || left(md5(n::text), 8),
+               'Author ' || (n % 5000),
+               DATE '1950-01-01' + (n % 25000),
+               (ARRAY['AVAILABLE', 'BORROWED', 'RESERVED', 'MAINTENANCE'])[1 + n % 4],
+               repeat('Lorem ipsum dolor sit amet. ', 20)
+        FROM generate_series(?, ?) AS n,
+             (SELECT ARRAY['adventure', 'castle', 'dragon', 'empire', 'forest', 'garden',
+                           'harbor', 'island', 'journey', 'kingdom', 'legend', 'mountain',
+                           'ocean', 'river', 'shadow', 'wizard'] AS words) AS vocabulary
+        """,
+        existing + 1, count);
+    jdbcTemplate.queryForObject("SELECT setval('books_id_seq', ?)", Long.class, count);
+
+    jdbcTemplate.execute("ANALYZE books");
+  }
+
+  /** Keeps the id sequence running, Hibernate may still hold a block of ids reserved from it. */
+  protected void truncateBooks() {
+    jdbcTemplate.execute("TRUNCATE books CASCADE");
+  }
+
+  /** Runs the action after a warm-up phase and records latency and allocation per invocation. */
+  protected static Measurement measure(int iterations, Runnable action) {
+    return Measurement.of(iterations, action);
+  }
+
+  /**
+   * Replaces the application's encoder, which hashes at the default strength of 10, for benchmarks
+   * that start the application with many authenticated requests.
+   */
+  static class CheapPasswordHashing {
+
+    @Bean
+    PasswordEncoder passwordEncoder() {
+      return new BCryptPasswordEncoder(4);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package de.rieckpil.blog.benchmark;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import de.rieckpil.blog.Book;
+import de.rieckpil.blog.BookRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compares loading books one INSERT ... RETURNING id at a time, which is what IDENTITY generation
+ * forced Hibernate to do, with saveAll on the pooled sequence where Hibernate batches the inserts
+ * and the driver rewrites each batch into a multi-row INSERT.
+ *
+ * <p>Run with ./mvnw test -Dtest=BookInsertBenchmark
+ */
+class BookInsertBenchmark extends BenchmarkSupport {
+
+  private static final int ROWS = 10_000;
+  private static final int RUNS = 5;
+
+  private static final String ROW_BY_ROW_INSERT =
+      """
+      INSERT INTO books (isbn, title, author, published_date, status)
+      VALUES (?, ?, ?, ?, 'AVAILABLE')
+      RETURNING id
+      """;
+
+  @Autowired private BookRepository bookRepository;
+  @Autowired private TransactionTemplate transactionTemplate;
+
+  @Test
+  void batchedInsertsBeatRowByRowInserts() {
+    System.out.printf("%n--- %,d rows per load ---%n", ROWS);
+
+    report(
+        "before: row-by-row INSERT RETURNING",
+        () ->
+            transactionTemplate.executeWithoutResult(
+                status -> {
+                  for (Book book : books()) {
+                    jdbcTemplate.queryForObject(
+                        ROW_BY_ROW_INSERT,
+                        Long.class,
+                        book.getIsbn(),
+                        book.getTitle(),
+                        book.getAuthor(),
+                        Date.valueOf(book.getPublishedDate()));
+                  }
+                }));
+
+    report(
+        "after:  saveAll with batched inserts",
+        () -> transactionTemplate.executeWithoutResult(status -> bookRepository.saveAll(books())));
+  }
+
+  private void report(String label, Runnable load) {
+    double best = 0;
+    for (int run = 0; run < RUNS; run++) {
+      truncateBooks();
+      long start = System.nanoTime();
+      load.run();
+      best = Math.max(best, ROWS / ((System.nanoTime() - start) / 1_000_000_000.0));
+    }
+    System.out.printf(Locale.ROOT, "%-40s best of %d: %,12.0f inserts/s%n", label, RUNS, best);
+  }
+
+  private static List<Book> books() {
+    List<Book> books = new ArrayList<>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      books.add(
+          new Book(
+              "insert-" + i,
+              "Title " + i,
+              "Author " + (i % 500),
+              LocalDate.of(1950, 1, 1).plusDays(i)));
+    }
+    return books;
+  }
+}
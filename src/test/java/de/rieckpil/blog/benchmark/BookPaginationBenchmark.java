@@ -0,0 +1,56 @@
+package de.rieckpil.blog.benchmark;
+
+import de.rieckpil.blog.BookRepository;
+import de.rieckpil.blog.BookService;
+import de.rieckpil.blog.BookSortField;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+
+/**
+ * Shows that the keyset-paginated listing keeps p99 latency and allocations flat while the catalog
+ * grows, in contrast to the former {@code findAll()} listing.
+ *
+ * <p>Run with ./mvnw test -Dtest=BookPaginationBenchmark
+ */
+class BookPaginationBenchmark extends BenchmarkSupport {
+
+  private static final int[] TABLE_SIZES = {10_000, 100_000, 1_000_000};
+  private static final int FIND_ALL_MAX_TABLE_SIZE = 100_000;
+  private static final int PAGE_SIZE = 50;
+  private static final int ITERATIONS = 200;
+
+  @Autowired private BookService bookService;
+
+  @Autowired private BookRepository bookRepository;
+
+  @Test
+  void keysetPaginationStaysFlatWhileTableGrows() {
+    truncateBooks();
+
+    for (int tableSize : TABLE_SIZES) {
+      seedBooksUpTo(tableSize);
+
+      System.out.printf("%n--- %,d books ---%n", tableSize);
+      System.out.println(
+          measure(ITERATIONS, () -> bookService.getBooks(BookSortField.ID, null, PAGE_SIZE, true))
+              .format("first page + approximate total"));
+      System.out.println(
+          measure(
+                  ITERATIONS,
+                  () ->
+                      bookRepository.findPageAfterId(
+                          tableSize - 2L * PAGE_SIZE, Limit.of(PAGE_SIZE + 1)))
+              .format("deep page sorted by id"));
+      System.out.println(
+          measure(
+                  ITERATIONS,
+                  () -> bookRepository.findPageAfterTitle("wizard", 0L, Limit.of(PAGE_SIZE + 1)))
+              .format("deep page sorted by title"));
+
+      if (tableSize <= FIND_ALL_MAX_TABLE_SIZE) {
+        System.out.println(measure(10, bookRepository::findAll).format("findAll() (before)"));
+      }
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package de.rieckpil.blog.benchmark;
+
+import java.util.function.Supplier;
+
+import de.rieckpil.blog.Book;
+import de.rieckpil.blog.BookRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compares the list and search queries returning managed {@link Book} entities, as they did before,
+ * with the {@code BookSummary} projections. The entity variants run in a read-write transaction
+ * like the former repository methods, so they include loading the description, the persistence
+ * context snapshots and the dirty check on commit.
+ *
+ * <p>Run with ./mvnw test -Dtest=BookReadPathBenchmark
+ */
+class BookReadPathBenchmark extends BenchmarkSupport {
+
+  private static final int TABLE_SIZE = 100_000;
+  private static final int PAGE_SIZE = 51;
+  private static final int ITERATIONS = 500;
+
+  @Autowired private BookRepository bookRepository;
+
+  @Autowired private EntityManager entityManager;
+
+  @Autowired private TransactionTemplate transactionTemplate;
+
+  @Test
+  void projectionsAllocateLessThanEntities() {
+    truncateBooks();
+    seedBooksUpTo(TABLE_SIZE);
+
+    System.out.printf("%n--- %,d books, %d rows per call ---%n", TABLE_SIZE, PAGE_SIZE);
+
+    System.out.println(
+        measure(
+                ITERATIONS,
+                inTransaction(
+                    () ->
+                        entityManager
+                            .createQuery("SELECT b FROM Book b ORDER BY b.id", Book.class)
+                            .setMaxResults(PAGE_SIZE)
+                            .getResultList()))
+            .format("list entities (before)"));
+    System.out.println(
+        measure(ITERATIONS, () -> bookRepository.findBy(Sort.by("id"), Limit.of(PAGE_SIZE)))
+            .format("list summaries"));
+
+    System.out.println(
+        measure(
+                ITERATIONS,
+                inTransaction(
+                    () ->
+                        entityManager
+                            .createQuery(
+                                "SELECT b FROM Book b WHERE b.author ILIKE :author"
+                                    + " ORDER BY b.author, b.id",
+                                Book.class)
+                            .setParameter("author", "%author 42%")
+                            .setMaxResults(PAGE_SIZE)
+                            .getResultList()))
+            .format("author search entities (before)"));
+    System.out.println(
+        measure(
+                ITERATIONS,
+                () ->
+                    bookRepository.findSummariesByAuthorContainingIgnoreCase(
+                        "author 42", Limit.of(PAGE_SIZE)))
+            .format("author search summaries"));
+
+    System.out.println(
+        measure(
+                ITERATIONS,
+                inTransaction(
+                    () ->
+                        entityManager
+                            .createNativeQuery(
+                                """
+                                SELECT b.* FROM books b, plainto_tsquery('english', :searchTerms) query
+                                WHERE b.title_search @@ query
+                                ORDER BY ts_rank(b.title_search, query) DESC, b.id
+                                LIMIT :limit
+                                """,
+                                Book.class)
+                            .setParameter("searchTerms", "dragon ocean")
+                            .setParameter("limit", PAGE_SIZE)
+                            .getResultList()))
+            .format("title search entities (before)"));
+    System.out.println(
+        measure(
+                ITERATIONS,
+                () -> bookRepository.searchBooksByTitleWithRanking("dragon ocean", PAGE_SIZE, 0))
+            .format("title search summaries"));
+  }
+
+  private Runnable inTransaction(Supplier<?> query) {
+    return () -> transactionTemplate.execute(status -> query.get());
+  }
+}
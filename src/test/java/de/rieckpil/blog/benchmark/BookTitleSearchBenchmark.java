@@ -0,0 +1,56 @@
+package de.rieckpil.blog.benchmark;
+
+import de.rieckpil.blog.BookRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Compares the former title search, which computed to_tsvector for every row in both the WHERE and
+ * the ORDER BY clause and returned all matches, with the top-K search on the stored and GIN-indexed
+ * tsvector column.
+ *
+ * <p>Run with ./mvnw test -Dtest=BookTitleSearchBenchmark
+ */
+class BookTitleSearchBenchmark extends BenchmarkSupport {
+
+  private static final int[] TABLE_SIZES = {100_000, 1_000_000};
+  private static final String[] SEARCH_TERMS = {"dragon", "dragon ocean", "c4ca4238"};
+  private static final int ITERATIONS = 50;
+
+  private static final String UNINDEXED_SEARCH =
+      """
+      SELECT * FROM books
+      WHERE to_tsvector('english', title) @@ plainto_tsquery('english', ?)
+      ORDER BY ts_rank(to_tsvector('english', title), plainto_tsquery('english', ?)) DESC
+      """;
+
+  @Autowired private BookRepository bookRepository;
+
+  @Test
+  void indexedTopKSearchBeatsPerRowTsvector() {
+    truncateBooks();
+
+    for (int tableSize : TABLE_SIZES) {
+      seedBooksUpTo(tableSize);
+
+      System.out.printf("%n--- %,d books ---%n", tableSize);
+      for (String searchTerms : SEARCH_TERMS) {
+        System.out.println(
+            measure(
+                    ITERATIONS,
+                    () ->
+                        jdbcTemplate
+                            .queryForList(UNINDEXED_SEARCH, searchTerms, searchTerms)
+                            .size())
+                .format("before: '" + searchTerms + "'"));
+        System.out.println(
+            measure(
+                    ITERATIONS,
+                    () ->
+                        bookRepository.searchBooksByTitleWithRanking(
+                            searchTerms, BookRepository.DEFAULT_SEARCH_LIMIT, 0))
+                .format("after:  '" + searchTerms + "'"));
+      }
+    }
+  }
+}
@@ -0,0 +1,298 @@
+package de.rieckpil.blog.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import de.rieckpil.blog.ShelfieApplication;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.TestPropertySource;
+import reactor.netty.resources.ConnectionProvider;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Creates books concurrently and measures how fast the enrichment worker drains the outbox while
+ * OpenLibrary answers after {@link #UPSTREAM_DELAY}, once with the metadata client's pool sized
+ * like Reactor Netty's default pool and once with its own defaults. The worker and the bulkhead
+ * allow {@link #CONCURRENT_LOOKUPS} lookups at a time, so the pool is the narrowest point: the
+ * default one queues what exceeds its connections and fails what exceeds its pending acquires.
+ * Enough failed acquires open the circuit breaker, and the jobs it rejects are retried and
+ * eventually dead-lettered.
+ *
+ * <p>Reports create throughput, enriched, retried and dead-lettered jobs, the peak of active
+ * connections and the time requests waited for a connection, from the pool's own metrics. The
+ * worker of the test's own context is paused, it would compete for the jobs.
+ *
+ * <p>Run with ./mvnw test -Dtest=ConnectionPoolBenchmark
+ */
+@TestPropertySource(properties = "book.enrichment.poll-interval=1d")
+class ConnectionPoolBenchmark extends BenchmarkSupport {
+
+  private static final Duration UPSTREAM_DELAY = Duration.ofSeconds(1);
+  private static final int CONCURRENT_LOOKUPS = 64;
+  private static final int BOOKS = 600;
+  private static final int CONCURRENT_CREATES = 16;
+  private static final Duration DRAIN_TIMEOUT = Duration.ofMinutes(2);
+
+  private static final AtomicInteger isbnSequence = new AtomicInteger();
+
+  private static WireMockServer wireMockServer;
+
+  private final HttpClient httpClient =
+      HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+
+  @BeforeAll
+  static void startSlowUpstream() {
+    wireMockServer =
+        new WireMockServer(
+            new WireMockConfiguration().dynamicPort().containerThreads(CONCURRENT_LOOKUPS * 2));
+    wireMockServer.start();
+    wireMockServer.stubFor(
+        get(urlPathMatching("/isbn/.*"))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"title\": \"Slow Upstream\", \"covers\": [42]}")
+                    .withFixedDelay((int) UPSTREAM_DELAY.toMillis())));
+  }
+
+  @AfterAll
+  static void stopSlowUpstream() {
+    wireMockServer.stop();
+  }
+
+  @Test
+  void dedicatedPoolDrainsOutboxFasterThanDefaultPool() throws Exception {
+    System.out.printf(
+        "%n--- %d books, %d concurrent lookups, upstream delay %d ms ---%n",
+        BOOKS, CONCURRENT_LOOKUPS, UPSTREAM_DELAY.toMillis());
+
+    DrainResult defaults =
+        run(
+            "--book.metadata.api.pool.max-connections="
+                + ConnectionProvider.DEFAULT_POOL_MAX_CONNECTIONS,
+            "--book.metadata.api.pool.pending-acquire-max-count="
+                + 2 * ConnectionProvider.DEFAULT_POOL_MAX_CONNECTIONS,
+            "--book.metadata.api.pool.pending-acquire-timeout="
+                + ConnectionProvider.DEFAULT_POOL_ACQUIRE_TIMEOUT
+                + "ms");
+    DrainResult dedicated = run();
+
+    System.out.println(defaults.format("default pool"));
+    System.out.println(dedicated.format("dedicated pool"));
+
+    assertThat(dedicated.failedCreates()).isZero();
+    assertThat(dedicated.enrichedJobs()).isEqualTo(BOOKS);
+    assertThat(dedicated.failedAcquires().count()).isZero();
+  }
+
+  private DrainResult run(String... poolArguments) throws Exception {
+    truncateBooks();
+    jdbcTemplate.execute("TRUNCATE book_metadata_cache");
+
+    List<String> arguments =
+        new ArrayList<>(
+            List.of(
+                "--server.port=0",
+                "--spring.main.allow-bean-definition-overriding=true",
+                "--spring.docker.compose.enabled=false",
+                // both runs would share the JCache manager the first one closes on shutdown
+                "--spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+                "--spring.datasource.url=" + postgres.getJdbcUrl(),
+                "--spring.datasource.username=" + postgres.getUsername(),
+                "--spring.datasource.password=" + postgres.getPassword(),
+                "--book.metadata.api.url=http://localhost:" + wireMockServer.port(),
+                "--book.metadata.bulkhead.max-concurrent-calls=" + CONCURRENT_LOOKUPS,
+                "--book.metadata.bulkhead.max-wait=1m",
+                "--book.enrichment.concurrency=" + CONCURRENT_LOOKUPS,
+                "--book.enrichment.poll-interval=50ms",
+                "--book.enrichment.initial-backoff=500ms",
+                "--book.enrichment.max-attempts=3"));
+    arguments.addAll(List.of(poolArguments));
+
+    try (ConfigurableApplicationContext application =
+        new SpringApplicationBuilder(ShelfieApplication.class, CheapPasswordHashing.class)
+            .run(arguments.toArray(String[]::new))) {
+      URI baseUri =
+          URI.create(
+              "http://localhost:" + application.getEnvironment().getProperty("local.server.port"));
+      MeterRegistry meterRegistry = application.getBean(MeterRegistry.class);
+
+      DoubleAccumulator peakActiveConnections = new DoubleAccumulator(Math::max, 0);
+      Thread sampler =
+          Thread.ofVirtual()
+              .start(
+                  () -> {
+                    while (!Thread.currentThread().isInterrupted()) {
+                      peakActiveConnections.accumulate(activeConnections(meterRegistry));
+                      LockSupport.parkNanos(Duration.ofMillis(20).toNanos());
+                    }
+                  });
+
+      long start = System.nanoTime();
+      int failedCreates = createBooks(baseUri);
+      long created = System.nanoTime();
+
+      while (pendingJobs() > 0) {
+        if (System.nanoTime() - start > DRAIN_TIMEOUT.toNanos()) {
+          throw new IllegalStateException("Outbox not drained within " + DRAIN_TIMEOUT);
+        }
+        Thread.sleep(20);
+      }
+      long drained = System.nanoTime();
+      sampler.interrupt();
+
+      Collection<Timer> acquires =
+          meterRegistry.find("reactor.netty.connection.provider.pending.connections.time").timers();
+      return new DrainResult(
+          BOOKS / ((created - start) / 1_000_000_000.0),
+          (drained - start) / 1_000_000_000.0,
+          failedCreates,
+          jobs(meterRegistry, "enriched"),
+          jobs(meterRegistry, "retried"),
+          jobs(meterRegistry, "dead_lettered"),
+          (int) peakActiveConnections.get(),
+          acquires(acquires, "SUCCESS"),
+          acquires(acquires, "ERROR"));
+    }
+  }
+
+  private int createBooks(URI baseUri) throws Exception {
+    try (ExecutorService clients = Executors.newFixedThreadPool(CONCURRENT_CREATES)) {
+      List<Future<Integer>> creates = new ArrayList<>();
+      for (int i = 0; i < BOOKS; i++) {
+        creates.add(clients.submit(() -> send(createRequest(baseUri))));
+      }
+
+      int failed = 0;
+      for (Future<Integer> create : creates) {
+        if (create.get() != 201) {
+          failed++;
+        }
+      }
+      return failed;
+    }
+  }
+
+  /** Jobs still to be enriched, dead letters do not count. */
+  private int pendingJobs() {
+    return jdbcTemplate.queryForObject(
+        "SELECT COUNT(*) FROM book_enrichment_jobs WHERE dead_lettered_at IS NULL", Integer.class);
+  }
+
+  private static long jobs(MeterRegistry meterRegistry, String outcome) {
+    return (long)
+        meterRegistry.get("book.enrichment.jobs").tag("outcome", outcome).counter().count();
+  }
+
+  /** Acquires with the given status, summed over the pools and their remote addresses. */
+  private static Acquires acquires(Collection<Timer> timers, String status) {
+    List<Timer> matching =
+        timers.stream().filter(timer -> status.equals(timer.getId().getTag("status"))).toList();
+    long count = matching.stream().mapToLong(Timer::count).sum();
+    double totalMillis =
+        matching.stream().mapToDouble(timer -> timer.totalTime(TimeUnit.MILLISECONDS)).sum();
+    return new Acquires(
+        count,
+        count == 0 ? 0 : totalMillis / count,
+        matching.stream().mapToDouble(timer -> timer.max(TimeUnit.MILLISECONDS)).max().orElse(0));
+  }
+
+  /** Summed over the remote addresses, the pool keeps one set of connections per address. */
+  private static double activeConnections(MeterRegistry meterRegistry) {
+    return meterRegistry
+        .find("reactor.netty.connection.provider.active.connections")
+        .gauges()
+        .stream()
+        .mapToDouble(Gauge::value)
+        .sum();
+  }
+
+  private static HttpRequest createRequest(URI baseUri) {
+    String body =
+        """
+        {
+          "isbn": "979-%010d",
+          "title": "Waiting for Enrichment",
+          "author": "Load Generator",
+          "publishedDate": "2020-01-01"
+        }
+        """
+            .formatted(isbnSequence.incrementAndGet());
+    return HttpRequest.newBuilder(baseUri.resolve("/api/books"))
+        .header("Content-Type", "application/json")
+        .header(
+            "Authorization",
+            "Basic "
+                + Base64.getEncoder()
+                    .encodeToString("librarian:librarian".getBytes(StandardCharsets.UTF_8)))
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+  }
+
+  private int send(HttpRequest request) throws Exception {
+    return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+
+  private record Acquires(long count, double meanMillis, double maxMillis) {}
+
+  private record DrainResult(
+      double createsPerSecond,
+      double drainSeconds,
+      int failedCreates,
+      long enrichedJobs,
+      long retriedJobs,
+      long deadLetteredJobs,
+      int peakActiveConnections,
+      Acquires acquired,
+      Acquires failedAcquires) {
+
+    String format(String label) {
+      return String.format(
+          Locale.ROOT,
+          "%-15s creates/s=%6.1f  failed=%d  enriched=%4d (%5.1f/s)  retried=%4d  dead-lettered=%4d"
+              + "  peak active connections=%3d  acquire mean=%6.1f ms max=%7.1f ms"
+              + "  failed acquires=%d",
+          label,
+          createsPerSecond,
+          failedCreates,
+          enrichedJobs,
+          enrichedJobs / drainSeconds,
+          retriedJobs,
+          deadLetteredJobs,
+          peakActiveConnections,
+          acquired.meanMillis(),
+          acquired.maxMillis(),
+          failedAcquires.count());
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package de.rieckpil.blog.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+/** Latency percentiles in nanoseconds and the average bytes allocated per invocation. */
+record Measurement(long p50Nanos, long p99Nanos, long allocatedBytesPerOp) {
+
+  /** Runs the action after a warm-up phase and records latency and allocation per invocation. */
+  static Measurement of(int iterations, Runnable action) {
+    com.sun.management.ThreadMXBean threadMXBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    for (int i = 0; i < Math.max(10, iterations / 10); i++) {
+      action.run();
+    }
+
+    long[] latencies = new long[iterations];
+    long allocatedBytes = 0;
+
+    for (int i = 0; i < iterations; i++) {
+      long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+      long start = System.nanoTime();
+      action.run();
+      latencies[i] = System.nanoTime() - start;
+      allocatedBytes += threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+    }
+
+    Arrays.sort(latencies);
+    return new Measurement(
+        percentile(latencies, 0.50), percentile(latencies, 0.99), allocatedBytes / iterations);
+  }
+
+  private static long percentile(long[] sortedLatencies, double percentile) {
+    int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+    return sortedLatencies[Math.max(0, index)];
+  }
+
+  String format(String label) {
+    return String.format(
+        Locale.ROOT,
+        "%-40s p50=%8.2f ms  p99=%8.2f ms  alloc/op=%,12d B",
+        label,
+        p50Nanos / 1_000_000.0,
+        p99Nanos / 1_000_000.0,
+        allocatedBytesPerOp);
+  }
+}
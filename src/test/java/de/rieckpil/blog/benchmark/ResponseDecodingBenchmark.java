@@ -0,0 +1,134 @@
+package de.rieckpil.blog.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import de.rieckpil.blog.BookMetadataResponse;
+import de.rieckpil.blog.OpenLibraryResponseDecoder;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.node.ArrayNode;
+import tools.jackson.databind.node.ObjectNode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares decoding an OpenLibrary edition the way the client did before, joining the whole body
+ * into a string and binding it, with {@link OpenLibraryResponseDecoder} selecting the fields while
+ * the body arrives in {@link #CHUNK_SIZE} chunks. The payload is the Clean Code edition with its
+ * table of contents and source records repeated to model the large editions OpenLibrary returns for
+ * anthologies and textbooks. The decoder is built with its default configuration, no application
+ * context or database is needed.
+ *
+ * <p>Run with ./mvnw test -Dtest=ResponseDecodingBenchmark
+ */
+class ResponseDecodingBenchmark {
+
+  private static final int CHUNK_SIZE = 8 * 1024;
+  private static final int ITERATIONS = 2_000;
+
+  private final JsonMapper jsonMapper = JsonMapper.builder().build();
+
+  private final OpenLibraryResponseDecoder responseDecoder =
+      new OpenLibraryResponseDecoder(
+          jsonMapper,
+          Set.of(
+              "key",
+              "title",
+              "isbn_13",
+              "isbn_10",
+              "publish_date",
+              "publishers",
+              "authors",
+              "number_of_pages",
+              "physical_format",
+              "description",
+              "subjects",
+              "covers"),
+          20,
+          DataSize.ofKilobytes(256));
+
+  @Test
+  void streamingSelectionAllocatesLessThanFullDecoding() throws IOException {
+    for (int scale : new int[] {1, 20, 200}) {
+      List<byte[]> chunks = chunks(scaledEdition(scale));
+      int size = chunks.stream().mapToInt(chunk -> chunk.length).sum();
+      String selected = responseDecoder.decodeEdition(body(chunks)).block();
+
+      System.out.printf(
+          "%n--- edition scaled x%d: %,d bytes, %,d characters kept ---%n",
+          scale, size, selected.length());
+
+      assertThat(jsonMapper.readValue(selected, BookMetadataResponse.class))
+          .isEqualTo(jsonMapper.readValue(joined(chunks), BookMetadataResponse.class));
+
+      Measurement full =
+          Measurement.of(
+              ITERATIONS, () -> jsonMapper.readValue(joined(chunks), BookMetadataResponse.class));
+      Measurement streaming =
+          Measurement.of(
+              ITERATIONS,
+              () ->
+                  jsonMapper.readValue(
+                      responseDecoder.decodeEdition(body(chunks)).block(),
+                      BookMetadataResponse.class));
+
+      System.out.println(full.format("join and bind (before)"));
+      System.out.println(streaming.format("select while streaming and bind"));
+
+      if (scale > 1) {
+        assertThat(streaming.allocatedBytesPerOp()).isLessThan(full.allocatedBytesPerOp());
+      }
+    }
+  }
+
+  /** What {@code bodyToMono(String.class)} did: aggregate the buffers, then decode the string. */
+  private static String joined(List<byte[]> chunks) {
+    DataBuffer body = DataBufferUtils.join(body(chunks)).block();
+    try {
+      return body.toString(StandardCharsets.UTF_8);
+    } finally {
+      DataBufferUtils.release(body);
+    }
+  }
+
+  private static Flux<DataBuffer> body(List<byte[]> chunks) {
+    return Flux.fromIterable(chunks).map(DefaultDataBufferFactory.sharedInstance::wrap);
+  }
+
+  private byte[] scaledEdition(int scale) throws IOException {
+    ObjectNode edition =
+        (ObjectNode)
+            jsonMapper.readTree(
+                Files.readString(
+                    Path.of("src/test/resources/__files/978-0132350884-success.json")));
+    for (String field : List.of("table_of_contents", "source_records")) {
+      ArrayNode original = (ArrayNode) edition.get(field);
+      ArrayNode scaled = edition.putArray(field);
+      for (int i = 0; i < scale; i++) {
+        scaled.addAll(original);
+      }
+    }
+    return jsonMapper.writeValueAsBytes(edition);
+  }
+
+  private static List<byte[]> chunks(byte[] content) {
+    List<byte[]> chunks = new ArrayList<>();
+    for (int offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+      chunks.add(
+          Arrays.copyOfRange(content, offset, Math.min(content.length, offset + CHUNK_SIZE)));
+    }
+    return chunks;
+  }
+}
@@ -0,0 +1,289 @@
+package de.rieckpil.blog.benchmark;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import de.rieckpil.blog.ShelfieApplication;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Starts the application once on platform and once on virtual threads and keeps more slow creates
+ * in flight than the platform pool has request threads, while OpenLibrary answers after {@link
+ * #UPSTREAM_DELAY}. Meanwhile a client alternately lists books and searches titles, neither of
+ * which needs OpenLibrary. Reports create and read throughput, read latency, the peak number of
+ * Tomcat platform threads and how often JFR saw a virtual thread block while pinned to its carrier,
+ * e.g. by running a query inside a {@code synchronized} block.
+ *
+ * <p>The platform pool is shrunk to {@link #PLATFORM_THREADS} and passwords are hashed at the
+ * lowest BCrypt strength, so a single core reaches the pool limit without spending the run on
+ * hashing. Creates stay below the 16 connections and 32 pending acquires of the metadata client's
+ * default connection pool, which caps the concurrent OpenLibrary calls in both modes.
+ *
+ * <p>Run with ./mvnw test -Dtest=VirtualThreadLoadBenchmark
+ */
+class VirtualThreadLoadBenchmark extends BenchmarkSupport {
+
+  private static final Duration UPSTREAM_DELAY = Duration.ofSeconds(1);
+  private static final int PLATFORM_THREADS = 20;
+  private static final int CONCURRENT_CREATES = 40;
+  private static final int ROUNDS = 3;
+  private static final List<String> SEARCH_TERMS =
+      List.of("dragon", "castle ocean", "wizard", "forest river", "kingdom");
+
+  private static final AtomicInteger isbnSequence = new AtomicInteger();
+
+  private static WireMockServer wireMockServer;
+
+  private final HttpClient httpClient =
+      HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+
+  @BeforeAll
+  static void startSlowUpstream() {
+    wireMockServer = new WireMockServer(new WireMockConfiguration().dynamicPort());
+    wireMockServer.start();
+    wireMockServer.stubFor(
+        get(urlPathMatching("/isbn/.*"))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"title\": \"Slow Upstream\", \"covers\": [42]}")
+                    .withFixedDelay((int) UPSTREAM_DELAY.toMillis())));
+  }
+
+  @AfterAll
+  static void stopSlowUpstream() {
+    wireMockServer.stop();
+  }
+
+  @Test
+  void virtualThreadsKeepServingWhileCreatesWaitForUpstream() throws Exception {
+    truncateBooks();
+    seedBooksUpTo(10_000);
+
+    System.out.printf(
+        "%n--- %d concurrent creates, upstream delay %d ms, %d platform request threads ---%n",
+        CONCURRENT_CREATES, UPSTREAM_DELAY.toMillis(), PLATFORM_THREADS);
+
+    LoadResult platform = run(false);
+    LoadResult virtual = run(true);
+
+    System.out.println(platform.format("platform threads"));
+    System.out.println(virtual.format("virtual threads"));
+
+    assertThat(virtual.failedRequests()).isZero();
+    assertThat(virtual.pinnedEvents()).isZero();
+  }
+
+  private LoadResult run(boolean virtualThreads) throws Exception {
+    // arguments, as default properties would lose against application.yml
+    String[] arguments = {
+      "--server.port=0",
+      "--spring.main.allow-bean-definition-overriding=true",
+      "--spring.threads.virtual.enabled=" + virtualThreads,
+      "--server.tomcat.threads.max=" + PLATFORM_THREADS,
+      "--spring.docker.compose.enabled=false",
+      "--spring.datasource.url=" + postgres.getJdbcUrl(),
+      "--spring.datasource.username=" + postgres.getUsername(),
+      "--spring.datasource.password=" + postgres.getPassword(),
+      "--book.metadata.api.url=http://localhost:" + wireMockServer.port()
+    };
+
+    try (ConfigurableApplicationContext application =
+            new SpringApplicationBuilder(ShelfieApplication.class, CheapPasswordHashing.class)
+                .run(arguments);
+        RecordingStream pinning = new RecordingStream()) {
+      URI baseUri =
+          URI.create(
+              "http://localhost:" + application.getEnvironment().getProperty("local.server.port"));
+
+      List<String> pinnedAt = new ArrayList<>();
+      pinning.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+      pinning.onEvent(
+          "jdk.VirtualThreadPinned",
+          event -> {
+            synchronized (pinnedAt) {
+              pinnedAt.add(blockedIn(event));
+            }
+          });
+      pinning.startAsync();
+
+      // one round to warm up connections and the JIT
+      runRound(baseUri);
+
+      List<Long> readLatencies = new ArrayList<>();
+      int failed = 0;
+      int peakTomcatThreads = 0;
+      long start = System.nanoTime();
+      for (int round = 0; round < ROUNDS; round++) {
+        Round result = runRound(baseUri);
+        readLatencies.addAll(result.readLatencies());
+        failed += result.failedRequests();
+        peakTomcatThreads = Math.max(peakTomcatThreads, result.peakTomcatThreads());
+      }
+      long elapsed = System.nanoTime() - start;
+
+      synchronized (pinnedAt) {
+        pinnedAt.stream().distinct().forEach(frame -> System.out.println("pinned at " + frame));
+      }
+
+      long[] sortedLatencies = readLatencies.stream().mapToLong(Long::longValue).toArray();
+      Arrays.sort(sortedLatencies);
+      return new LoadResult(
+          ROUNDS * CONCURRENT_CREATES / (elapsed / 1_000_000_000.0),
+          sortedLatencies.length / (elapsed / 1_000_000_000.0),
+          percentile(sortedLatencies, 0.50),
+          percentile(sortedLatencies, 0.99),
+          peakTomcatThreads,
+          failed,
+          pinnedAt.size());
+    }
+  }
+
+  /** Starts the creates at once and reads books until all of them completed. */
+  private Round runRound(URI baseUri) throws Exception {
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<Integer>> creates = new ArrayList<>();
+      for (int i = 0; i < CONCURRENT_CREATES; i++) {
+        creates.add(clients.submit(() -> send(createRequest(baseUri))));
+      }
+
+      List<Long> readLatencies = new ArrayList<>();
+      int failed = 0;
+      int peakTomcatThreads = 0;
+      while (!creates.stream().allMatch(Future::isDone)) {
+        HttpRequest read =
+            readLatencies.size() % 2 == 0
+                ? HttpRequest.newBuilder(baseUri.resolve("/api/books?size=20")).build()
+                : searchRequest(baseUri, SEARCH_TERMS.get(readLatencies.size() % 5));
+        long start = System.nanoTime();
+        if (send(read) != 200) {
+          failed++;
+        }
+        readLatencies.add(System.nanoTime() - start);
+        peakTomcatThreads = Math.max(peakTomcatThreads, tomcatPlatformThreads());
+      }
+
+      for (Future<Integer> create : creates) {
+        if (create.get() != 201) {
+          failed++;
+        }
+      }
+      return new Round(readLatencies, failed, peakTomcatThreads);
+    }
+  }
+
+  /** The innermost frame outside the JDK, usually the driver or client call that blocked. */
+  private static String blockedIn(RecordedEvent event) {
+    return event.getStackTrace().getFrames().stream()
+        .map(RecordedFrame::getMethod)
+        .map(method -> method.getType().getName() + "." + method.getName())
+        .filter(name -> !name.startsWith("java.") && !name.startsWith("jdk."))
+        .findFirst()
+        .orElse("?");
+  }
+
+  private static HttpRequest searchRequest(URI baseUri, String terms) {
+    return HttpRequest.newBuilder(
+            baseUri.resolve(
+                "/api/books/search/title?q=" + URLEncoder.encode(terms, StandardCharsets.UTF_8)))
+        .header("Authorization", basicAuth("user", "user"))
+        .build();
+  }
+
+  private static HttpRequest createRequest(URI baseUri) {
+    String body =
+        """
+        {
+          "isbn": "979-%010d",
+          "title": "Waiting for Upstream",
+          "author": "Load Generator",
+          "publishedDate": "2020-01-01"
+        }
+        """
+            .formatted(isbnSequence.incrementAndGet());
+    return HttpRequest.newBuilder(baseUri.resolve("/api/books"))
+        .header("Content-Type", "application/json")
+        .header("Authorization", basicAuth("librarian", "librarian"))
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+  }
+
+  private static String basicAuth(String username, String password) {
+    return "Basic "
+        + Base64.getEncoder()
+            .encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Virtual threads are not listed, so this only counts the workers of the platform pool. */
+  private static int tomcatPlatformThreads() {
+    return (int)
+        Thread.getAllStackTraces().keySet().stream()
+            .filter(thread -> thread.getName().startsWith("http-nio-"))
+            .count();
+  }
+
+  private int send(HttpRequest request) throws Exception {
+    return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+
+  private static long percentile(long[] sortedLatencies, double percentile) {
+    int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+    return sortedLatencies[Math.max(0, index)];
+  }
+
+  private record Round(List<Long> readLatencies, int failedRequests, int peakTomcatThreads) {}
+
+  private record LoadResult(
+      double createsPerSecond,
+      double readsPerSecond,
+      long readP50Nanos,
+      long readP99Nanos,
+      int peakTomcatThreads,
+      int failedRequests,
+      int pinnedEvents) {
+
+    String format(String label) {
+      return String.format(
+          Locale.ROOT,
+          "%-18s creates/s=%6.1f  reads/s=%7.1f  read p50=%8.2f ms  p99=%8.2f ms"
+              + "  tomcat platform threads=%3d  failed=%d  pinned=%d",
+          label,
+          createsPerSecond,
+          readsPerSecond,
+          readP50Nanos / 1_000_000.0,
+          readP99Nanos / 1_000_000.0,
+          peakTomcatThreads,
+          failedRequests,
+          pinnedEvents);
+    }
+  }
+}
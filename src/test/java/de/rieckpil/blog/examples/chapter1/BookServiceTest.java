@@ -1,26 +1,41 @@
 package de.rieckpil.blog.examples.chapter1;
 
 import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import de.rieckpil.blog.Book;
 import de.rieckpil.blog.BookAlreadyExistsException;
+import de.rieckpil.blog.BookBatch;
 import de.rieckpil.blog.BookCreationRequest;
-import de.rieckpil.blog.BookMetadataResponse;
+import de.rieckpil.blog.BookFilter;
+import de.rieckpil.blog.BookPage;
 import de.rieckpil.blog.BookRepository;
+import de.rieckpil.blog.BookSearchCache;
 import de.rieckpil.blog.BookService;
-import de.rieckpil.blog.OpenLibraryApiClient;
+import de.rieckpil.blog.BookSortField;
+import de.rieckpil.blog.BookStatus;
+import de.rieckpil.blog.BookStatusCount;
+import de.rieckpil.blog.BookSummary;
+import de.rieckpil.blog.BookUpdateRequest;
+import de.rieckpil.blog.BookVersionMismatchException;
+import de.rieckpil.blog.InvalidPageRequestException;
+import de.rieckpil.blog.StaleReadGuard;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,21 +43,23 @@ class BookServiceTest {
 
   @Mock private BookRepository bookRepository;
 
-  @Mock private OpenLibraryApiClient openLibraryApiClient;
+  @Mock private BookSearchCache bookSearchCache;
+
+  @Mock private StaleReadGuard staleReadGuard;
 
   @Test
   void shouldThrowExceptionWhenBookWithIsbnAlreadyExists() {
     // Arrange
-    BookService cut = new BookService(bookRepository, openLibraryApiClient);
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
     String existingIsbn = "9780134685991";
 
-    when(bookRepository.findByIsbn(existingIsbn))
-        .thenReturn(
-            Optional.of(new Book(existingIsbn, "Effective Java", "Joshua Bloch", LocalDate.now())));
-
     BookCreationRequest request =
         new BookCreationRequest(existingIsbn, "Effective Java", "Joshua Bloch", LocalDate.now());
 
+    when(bookRepository.insertIfIsbnAbsent(
+            existingIsbn, request.title(), request.author(), request.publishedDate()))
+        .thenReturn(Optional.empty());
+
     // Act & Assert
     BookAlreadyExistsException exception =
         assertThrows(BookAlreadyExistsException.class, () -> cut.createBook(request));
@@ -54,7 +71,7 @@ class BookServiceTest {
   @DisplayName("Should create a book when ISBN does not exist")
   void shouldCreateBookWhenIsbnDoesNotExist() {
     // Arrange
-    BookService cut = new BookService(bookRepository, openLibraryApiClient);
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
     String isbn = "9780134685991";
     String title = "Effective Java";
     String author = "Joshua Bloch";
@@ -62,30 +79,204 @@ class BookServiceTest {
 
     BookCreationRequest request = new BookCreationRequest(isbn, title, author, publishedDate);
 
-    Book savedBook = new Book(isbn, title, author, publishedDate);
-    savedBook.setId(42L);
-
-    BookMetadataResponse metadata =
-        BookMetadataResponseMother.defaultBook().withIsbn13(isbn).withCoverId(8739161).build();
-
-    when(bookRepository.findByIsbn(isbn)).thenReturn(Optional.empty());
-    when(openLibraryApiClient.getBookByIsbn(isbn)).thenReturn(metadata);
-    when(bookRepository.save(any(Book.class))).thenReturn(savedBook);
+    when(bookRepository.insertIfIsbnAbsent(isbn, title, author, publishedDate))
+        .thenReturn(Optional.of(42L));
 
     // Act
     Long bookId = cut.createBook(request);
 
     // Assert
     assertThat(bookId).isEqualTo(42L);
+    verify(bookRepository, never()).save(any(Book.class));
+    verify(staleReadGuard).recordWrite();
+    verify(bookSearchCache).evictAll();
+  }
+
+  @Test
+  @DisplayName("Should reject a cursor that was issued for a different sort property")
+  void shouldRejectCursorOfDifferentSortProperty() {
+    // Arrange
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
+    String idCursor = "aWQKNDIKNDI"; // Base64 of "id\n42\n42", a valid cursor for sorting by id
+
+    // Act & Assert
+    assertThrows(
+        InvalidPageRequestException.class,
+        () -> cut.getBooks(BookSortField.TITLE, idCursor, 10, false));
+
+    verifyNoInteractions(bookRepository);
+  }
+
+  @Test
+  @DisplayName("Should continue the filtered listing right after the last book of the page")
+  void shouldContinueFilteredListingAfterLastBookOfPage() {
+    // Arrange
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
+    BookFilter filter = new BookFilter(BookStatus.AVAILABLE, null, null, "Martin");
+    BookSummary first =
+        new BookSummary(7L, "978-1", "Clean Code", "Martin", LocalDate.of(2008, 8, 1), null);
+    BookSummary second =
+        new BookSummary(3L, "978-2", "Clean Coder", "Martin", LocalDate.of(2011, 5, 13), null);
+    BookSummary third =
+        new BookSummary(
+            9L, "978-3", "Clean Architecture", "Martin", LocalDate.of(2017, 9, 10), null);
+
+    when(bookRepository.findFiltered(filter, null, null, Limit.of(3)))
+        .thenReturn(List.of(first, second, third));
+    when(bookRepository.findFiltered(filter, LocalDate.of(2011, 5, 13), 3L, Limit.of(3)))
+        .thenReturn(List.of(third));
+
+    // Act
+    BookPage firstPage = cut.getFilteredBooks(filter, null, 2);
+    BookPage secondPage = cut.getFilteredBooks(filter, firstPage.next(), 2);
+
+    // Assert
+    assertThat(firstPage.content()).containsExactly(first, second);
+    assertThat(secondPage.content()).containsExactly(third);
+    assertThat(secondPage.next()).isNull();
+  }
+
+  @Test
+  @DisplayName("Should read a batch in request order and report the keys without a book")
+  void shouldReadBatchAndReportMissingKeys() {
+    // Arrange
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
+    Book refactoring = bookWithId(1L, "978-1");
+    Book cleanCode = bookWithId(2L, "978-2");
+
+    when(bookRepository.findAllByIds(new Long[] {2L, 1L, 3L}))
+        .thenReturn(List.of(refactoring, cleanCode));
+    when(bookRepository.findAllByIsbns(new String[] {"978-1", "978-4"}))
+        .thenReturn(List.of(refactoring));
+
+    // Act
+    BookBatch batch = cut.getBooks(List.of(2L, 1L, 3L, 2L), List.of("978-1", "978-4"));
+
+    // Assert
+    assertThat(batch.books()).containsExactly(cleanCode, refactoring);
+    assertThat(batch.missingIds()).containsExactly(3L);
+    assertThat(batch.missingIsbns()).containsExactly("978-4");
+  }
+
+  @Test
+  @DisplayName("Should reject paging beyond the top ranked search results")
+  void shouldRejectPagingBeyondTopRankedSearchResults() {
+    // Arrange
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
+
+    // Act & Assert
+    assertThrows(
+        InvalidPageRequestException.class, () -> cut.searchBooksByTitle("dragons", 50, 100));
+
+    verifyNoInteractions(bookRepository);
+  }
 
-    ArgumentCaptor<Book> bookCaptor = ArgumentCaptor.forClass(Book.class);
-    verify(bookRepository).save(bookCaptor.capture());
+  @Test
+  @DisplayName("Should update a book by id without loading it first")
+  void shouldUpdateBookWithoutLoadingIt() {
+    // Arrange
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
+    BookUpdateRequest request =
+        new BookUpdateRequest(
+            "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6), BookStatus.BORROWED);
+    Book updatedBook =
+        new Book("9780134685991", "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6));
+
+    when(bookRepository.updateById(
+            42L, "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6), "BORROWED", null))
+        .thenReturn(Optional.of(updatedBook));
+
+    // Act
+    Optional<Book> result = cut.updateBook(42L, request, null);
+
+    // Assert
+    assertThat(result).containsSame(updatedBook);
+    verify(bookRepository, never()).findById(any());
+    verify(bookRepository).evictFromCache(42L);
+  }
+
+  @Test
+  @DisplayName("Should reject an update based on an outdated version")
+  void shouldRejectUpdateOfOutdatedVersion() {
+    // Arrange
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
+    BookUpdateRequest request =
+        new BookUpdateRequest(
+            "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6), BookStatus.BORROWED);
+
+    when(bookRepository.updateById(
+            42L, "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6), "BORROWED", 3L))
+        .thenReturn(Optional.empty());
+    when(bookRepository.existsById(42L)).thenReturn(true);
+
+    // Act & Assert
+    assertThrows(BookVersionMismatchException.class, () -> cut.updateBook(42L, request, 3L));
+  }
+
+  @Test
+  @DisplayName("Should report a missing book when nothing was deleted")
+  void shouldReturnFalseWhenNoBookWasDeleted() {
+    // Arrange
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
+    when(bookRepository.deleteBookById(42L)).thenReturn(0);
+
+    // Act & Assert
+    assertThat(cut.deleteBook(42L)).isFalse();
+    verify(bookRepository, never()).findById(any());
+    verifyNoInteractions(bookSearchCache);
+  }
+
+  @Test
+  @DisplayName("Should evict the cached searches when a book is deleted")
+  void shouldEvictSearchesWhenBookIsDeleted() {
+    // Arrange
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
+    when(bookRepository.deleteBookById(42L)).thenReturn(1);
+
+    // Act & Assert
+    assertThat(cut.deleteBook(42L)).isTrue();
+    verify(staleReadGuard).recordWrite();
+    verify(bookSearchCache).evictAll();
+  }
+
+  @Test
+  @DisplayName("Should report zero for statuses without books")
+  void shouldReportZeroForStatusesWithoutBooks() {
+    // Arrange
+    BookService cut = new BookService(bookRepository, bookSearchCache, staleReadGuard);
+    when(bookRepository.countByStatus())
+        .thenReturn(
+            List.of(statusCount(BookStatus.AVAILABLE, 40L), statusCount(BookStatus.BORROWED, 2L)));
+
+    // Act
+    Map<BookStatus, Long> counts = cut.getStatusCounts();
+
+    // Assert
+    assertThat(counts)
+        .containsExactly(
+            entry(BookStatus.AVAILABLE, 40L),
+            entry(BookStatus.BORROWED, 2L),
+            entry(BookStatus.RESERVED, 0L),
+            entry(BookStatus.MAINTENANCE, 0L));
+  }
+
+  private static BookStatusCount statusCount(BookStatus status, long count) {
+    return new BookStatusCount() {
+      @Override
+      public BookStatus getStatus() {
+        return status;
+      }
+
+      @Override
+      public long getCount() {
+        return count;
+      }
+    };
+  }
 
-    Book capturedBook = bookCaptor.getValue();
-    assertThat(capturedBook.getIsbn()).isEqualTo(isbn);
-    assertThat(capturedBook.getTitle()).isEqualTo(title);
-    assertThat(capturedBook.getAuthor()).isEqualTo(author);
-    assertThat(capturedBook.getPublishedDate()).isEqualTo(publishedDate);
-    assertThat(capturedBook.getThumbnailUrl()).isEqualTo(metadata.getCoverUrl());
+  private static Book bookWithId(Long id, String isbn) {
+    Book book = new Book(isbn, "Title " + id, "Author", LocalDate.of(2020, 1, 1));
+    book.setId(id);
+    return book;
   }
 }
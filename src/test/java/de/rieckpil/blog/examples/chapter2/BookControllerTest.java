@@ -1,31 +1,52 @@
 package de.rieckpil.blog.examples.chapter2;
 
 import java.time.LocalDate;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import de.rieckpil.blog.Book;
+import de.rieckpil.blog.BookBatch;
 import de.rieckpil.blog.BookController;
+import de.rieckpil.blog.BookFilter;
+import de.rieckpil.blog.BookPage;
 import de.rieckpil.blog.BookService;
+import de.rieckpil.blog.BookSortField;
+import de.rieckpil.blog.BookStatus;
+import de.rieckpil.blog.BookSummary;
+import de.rieckpil.blog.BookVersionMismatchException;
 import de.rieckpil.blog.SecurityConfig;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -44,20 +65,415 @@ class BookControllerTest {
 
     @Test
     void shouldListAllBooks() throws Exception {
-      List<Book> books =
+      List<BookSummary> books =
           List.of(
-              new Book("9780134685991", "Effective Java", "Joshua Bloch", LocalDate.of(2008, 8, 1)),
-              new Book("9780132350884", "Clean Code", "Robert Martin", LocalDate.of(2008, 8, 1)));
-
-      when(bookService.getAllBooks()).thenReturn(books);
+              new BookSummary(
+                  1L,
+                  "9780134685991",
+                  "Effective Java",
+                  "Joshua Bloch",
+                  LocalDate.of(2008, 8, 1),
+                  null),
+              new BookSummary(
+                  2L,
+                  "9780132350884",
+                  "Clean Code",
+                  "Robert Martin",
+                  LocalDate.of(2008, 8, 1),
+                  null));
+
+      when(bookService.getBooks(BookSortField.ID, null, 50, false))
+          .thenReturn(new BookPage(books, "next-cursor", null));
 
       mockMvc
           .perform(get("/api/books"))
           .andExpect(status().isOk())
-          .andExpect(jsonPath("$", Matchers.hasSize(2)))
-          .andExpect(jsonPath("$[0].title", Matchers.is("Effective Java")))
-          .andExpect(jsonPath("$[1].isbn", Matchers.is("9780132350884")));
+          .andExpect(jsonPath("$.content", Matchers.hasSize(2)))
+          .andExpect(jsonPath("$.content[0].title", Matchers.is("Effective Java")))
+          .andExpect(jsonPath("$.content[1].isbn", Matchers.is("9780132350884")))
+          .andExpect(jsonPath("$.content[0].description").doesNotExist())
+          .andExpect(jsonPath("$.next", Matchers.is("next-cursor")))
+          .andExpect(jsonPath("$.approximateTotal").doesNotExist());
+    }
+
+    @Test
+    void shouldPassCursorSortAndApproximateTotalToService() throws Exception {
+      when(bookService.getBooks(BookSortField.TITLE, "abc", 10, true))
+          .thenReturn(new BookPage(List.of(), null, 1_000_000L));
+
+      mockMvc
+          .perform(
+              get("/api/books")
+                  .param("sort", "title")
+                  .param("cursor", "abc")
+                  .param("size", "10")
+                  .param("includeTotal", "true"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.content", Matchers.hasSize(0)))
+          .andExpect(jsonPath("$.next").doesNotExist())
+          .andExpect(jsonPath("$.approximateTotal", Matchers.is(1_000_000)));
+    }
+
+    @Test
+    void shouldRejectUnsupportedSortProperty() throws Exception {
+      mockMvc
+          .perform(get("/api/books").param("sort", "description"))
+          .andExpect(status().isBadRequest());
+
+      verify(bookService, times(0)).getBooks(any(), any(), anyInt(), anyBoolean());
+    }
+
+    @Test
+    void shouldRejectTooLargePageSize() throws Exception {
+      mockMvc.perform(get("/api/books").param("size", "10000")).andExpect(status().isBadRequest());
+
+      verify(bookService, times(0)).getBooks(any(), any(), anyInt(), anyBoolean());
+    }
+  }
+
+  @Nested
+  @DisplayName("GET /api/books/search/title endpoint tests")
+  class SearchBooksByTitleTests {
+
+    @Test
+    @WithMockUser
+    void shouldReturnRankedTitleMatches() throws Exception {
+      when(bookService.searchBooksByTitle("clean", 1, 10))
+          .thenReturn(
+              List.of(
+                  new BookSummary(
+                      1L,
+                      "9780132350884",
+                      "Clean Code",
+                      "Robert Martin",
+                      LocalDate.of(2008, 8, 1),
+                      null)));
+
+      mockMvc
+          .perform(
+              get("/api/books/search/title")
+                  .param("q", "clean")
+                  .param("page", "1")
+                  .param("size", "10"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$", Matchers.hasSize(1)))
+          .andExpect(jsonPath("$[0].title", Matchers.is("Clean Code")));
+    }
+
+    @Test
+    @WithMockUser
+    void shouldRejectBlankSearchTerms() throws Exception {
+      mockMvc
+          .perform(get("/api/books/search/title").param("q", " "))
+          .andExpect(status().isBadRequest());
+
+      verify(bookService, times(0)).searchBooksByTitle(any(), anyInt(), anyInt());
+    }
+  }
+
+  @Nested
+  @DisplayName("GET /api/books/search/author endpoint tests")
+  class SearchBooksByAuthorTests {
+
+    @Test
+    @WithMockUser
+    void shouldUseSubstringSearchByDefault() throws Exception {
+      when(bookService.searchBooksByAuthor("martin", false, 20))
+          .thenReturn(
+              List.of(
+                  new BookSummary(
+                      1L,
+                      "9780132350884",
+                      "Clean Code",
+                      "Robert Martin",
+                      LocalDate.of(2008, 8, 1),
+                      null)));
+
+      mockMvc
+          .perform(get("/api/books/search/author").param("q", "martin"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$[0].author", Matchers.is("Robert Martin")));
+    }
+
+    @Test
+    @WithMockUser
+    void shouldUseFuzzySearchWithLimitWhenRequested() throws Exception {
+      when(bookService.searchBooksByAuthor("robert martn", true, 5)).thenReturn(List.of());
+
+      mockMvc
+          .perform(
+              get("/api/books/search/author")
+                  .param("q", "robert martn")
+                  .param("fuzzy", "true")
+                  .param("limit", "5"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$", Matchers.hasSize(0)));
+
+      verify(bookService, times(1)).searchBooksByAuthor("robert martn", true, 5);
+    }
+  }
+
+  @Nested
+  @DisplayName("GET /api/books/filter endpoint tests")
+  class FilterBooksTests {
+
+    @Test
+    @WithMockUser
+    void shouldPassAllCriteriaAndCursorToService() throws Exception {
+      BookFilter filter =
+          new BookFilter(BookStatus.AVAILABLE, LocalDate.of(2010, 1, 1), null, "Fowler");
+      when(bookService.getFilteredBooks(filter, "abc", 10))
+          .thenReturn(
+              new BookPage(
+                  List.of(
+                      new BookSummary(
+                          1L,
+                          "9780134757599",
+                          "Refactoring",
+                          "Martin Fowler",
+                          LocalDate.of(2018, 11, 19),
+                          null)),
+                  "next-cursor",
+                  null));
+
+      mockMvc
+          .perform(
+              get("/api/books/filter")
+                  .param("status", "AVAILABLE")
+                  .param("publishedFrom", "2010-01-01")
+                  .param("authorPrefix", "Fowler")
+                  .param("cursor", "abc")
+                  .param("size", "10"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.content[0].title", Matchers.is("Refactoring")))
+          .andExpect(jsonPath("$.next", Matchers.is("next-cursor")));
+    }
+
+    @Test
+    @WithMockUser
+    void shouldRejectUnknownStatus() throws Exception {
+      mockMvc
+          .perform(get("/api/books/filter").param("status", "LOST"))
+          .andExpect(status().isBadRequest());
+
+      verify(bookService, times(0)).getFilteredBooks(any(), any(), anyInt());
+    }
+  }
+
+  @Nested
+  @DisplayName("GET /api/books/statistics/status endpoint tests")
+  class StatusCountsTests {
+
+    @Test
+    @WithMockUser
+    void shouldReturnBookCountPerStatus() throws Exception {
+      Map<BookStatus, Long> counts = new EnumMap<>(BookStatus.class);
+      counts.put(BookStatus.AVAILABLE, 40L);
+      counts.put(BookStatus.BORROWED, 2L);
+      when(bookService.getStatusCounts()).thenReturn(counts);
+
+      mockMvc
+          .perform(get("/api/books/statistics/status"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.AVAILABLE", Matchers.is(40)))
+          .andExpect(jsonPath("$.BORROWED", Matchers.is(2)));
+    }
+
+    @Test
+    void shouldRequireAuthentication() throws Exception {
+      mockMvc.perform(get("/api/books/statistics/status")).andExpect(status().isUnauthorized());
+
+      verify(bookService, times(0)).getStatusCounts();
+    }
+  }
+
+  @Nested
+  @DisplayName("GET /api/books/batch endpoint tests")
+  class GetBooksBatchTests {
+
+    @Test
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should return found books and missing ids and ISBNs separately")
+    void shouldReturnFoundBooksAndMissingKeys() throws Exception {
+      when(bookService.getBooks(List.of(1L, 2L), List.of("978-missing")))
+          .thenReturn(
+              new BookBatch(List.of(bookWithVersion(1L)), List.of(2L), List.of("978-missing")));
+
+      mockMvc
+          .perform(get("/api/books/batch").param("ids", "1,2").param("isbns", "978-missing"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.books", Matchers.hasSize(1)))
+          .andExpect(jsonPath("$.books[0].title").value("Effective Java"))
+          .andExpect(jsonPath("$.missingIds", Matchers.contains(2)))
+          .andExpect(jsonPath("$.missingIsbns", Matchers.contains("978-missing")));
+    }
+
+    @Test
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should reject more ids than a batch may contain")
+    void shouldRejectTooLargeBatch() throws Exception {
+      String ids =
+          IntStream.rangeClosed(1, 201).mapToObj(String::valueOf).collect(Collectors.joining(","));
+
+      mockMvc.perform(get("/api/books/batch").param("ids", ids)).andExpect(status().isBadRequest());
+
+      verify(bookService, times(0)).getBooks(any(), any());
+    }
+  }
+
+  @Nested
+  @DisplayName("GET /api/books/{id} endpoint tests")
+  class GetBookByIdTests {
+
+    @Test
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should return the book with its version as ETag")
+    void shouldReturnBookWithETag() throws Exception {
+      when(bookService.getBookById(1L)).thenReturn(Optional.of(bookWithVersion(3L)));
+
+      mockMvc
+          .perform(get("/api/books/1"))
+          .andExpect(status().isOk())
+          .andExpect(header().string(HttpHeaders.ETAG, "\"3\""))
+          .andExpect(jsonPath("$.title").value("Effective Java"))
+          .andExpect(jsonPath("$.version").doesNotExist());
+    }
+
+    @Test
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should return 304 Not Modified without body when the ETag still matches")
+    void shouldReturnNotModifiedForMatchingETag() throws Exception {
+      when(bookService.getBookById(1L)).thenReturn(Optional.of(bookWithVersion(3L)));
+
+      mockMvc
+          .perform(get("/api/books/1").header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+          .andExpect(status().isNotModified())
+          .andExpect(content().string(""));
+    }
+
+    @Test
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should return the book when the client has an outdated ETag")
+    void shouldReturnBookForOutdatedETag() throws Exception {
+      when(bookService.getBookById(1L)).thenReturn(Optional.of(bookWithVersion(4L)));
+
+      mockMvc
+          .perform(get("/api/books/1").header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+          .andExpect(status().isOk())
+          .andExpect(header().string(HttpHeaders.ETAG, "\"4\""));
+    }
+  }
+
+  @Nested
+  @DisplayName("PUT /api/books/{id} endpoint tests")
+  class UpdateBookTests {
+
+    private static final String UPDATE_JSON =
+        """
+        {
+          "title": "Effective Java",
+          "author": "Joshua Bloch",
+          "publishedDate": "2018-01-06",
+          "status": "BORROWED"
+        }
+        """;
+
+    @Test
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should update unconditionally without If-Match and return the new ETag")
+    void shouldUpdateWithoutPrecondition() throws Exception {
+      when(bookService.updateBook(eq(1L), any(), isNull()))
+          .thenReturn(Optional.of(bookWithVersion(4L)));
+
+      mockMvc
+          .perform(put("/api/books/1").contentType(MediaType.APPLICATION_JSON).content(UPDATE_JSON))
+          .andExpect(status().isOk())
+          .andExpect(header().string(HttpHeaders.ETAG, "\"4\""));
+    }
+
+    @Test
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should pass the version from If-Match to the service")
+    void shouldPassIfMatchVersionToService() throws Exception {
+      when(bookService.updateBook(eq(1L), any(), eq(3L)))
+          .thenReturn(Optional.of(bookWithVersion(4L)));
+
+      mockMvc
+          .perform(
+              put("/api/books/1")
+                  .header(HttpHeaders.IF_MATCH, "\"3\"")
+                  .contentType(MediaType.APPLICATION_JSON)
+                  .content(UPDATE_JSON))
+          .andExpect(status().isOk());
     }
+
+    @Test
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should return 412 Precondition Failed when the book changed in the meantime")
+    void shouldReturnPreconditionFailedForStaleVersion() throws Exception {
+      when(bookService.updateBook(eq(1L), any(), eq(3L)))
+          .thenThrow(new BookVersionMismatchException(1L));
+
+      mockMvc
+          .perform(
+              put("/api/books/1")
+                  .header(HttpHeaders.IF_MATCH, "\"3\"")
+                  .contentType(MediaType.APPLICATION_JSON)
+                  .content(UPDATE_JSON))
+          .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should return 412 Precondition Failed for a weak ETag in If-Match")
+    void shouldReturnPreconditionFailedForWeakETag() throws Exception {
+      mockMvc
+          .perform(
+              put("/api/books/1")
+                  .header(HttpHeaders.IF_MATCH, "W/\"3\"")
+                  .contentType(MediaType.APPLICATION_JSON)
+                  .content(UPDATE_JSON))
+          .andExpect(status().isPreconditionFailed());
+
+      verify(bookService, times(0)).updateBook(any(), any(), any());
+    }
+
+    @Test
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should return 404 Not Found when the book doesn't exist")
+    void shouldReturnNotFoundWhenBookDoesNotExist() throws Exception {
+      when(bookService.updateBook(eq(999L), any(), isNull())).thenReturn(Optional.empty());
+
+      mockMvc
+          .perform(
+              put("/api/books/999").contentType(MediaType.APPLICATION_JSON).content(UPDATE_JSON))
+          .andExpect(status().isNotFound());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"*", "\"3\""})
+    @WithMockUser(roles = "USER")
+    @DisplayName("Should return 412 Precondition Failed for If-Match when the book doesn't exist")
+    void shouldReturnPreconditionFailedForIfMatchWhenBookDoesNotExist(String ifMatch)
+        throws Exception {
+      when(bookService.updateBook(eq(999L), any(), any())).thenReturn(Optional.empty());
+
+      mockMvc
+          .perform(
+              put("/api/books/999")
+                  .header(HttpHeaders.IF_MATCH, ifMatch)
+                  .contentType(MediaType.APPLICATION_JSON)
+                  .content(UPDATE_JSON))
+          .andExpect(status().isPreconditionFailed());
+    }
+  }
+
+  private static Book bookWithVersion(Long version) {
+    Book book =
+        new Book("9780134685991", "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6));
+    book.setId(1L);
+    book.setVersion(version);
+    return book;
   }
 
   @Nested
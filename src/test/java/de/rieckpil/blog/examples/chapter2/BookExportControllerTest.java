@@ -0,0 +1,77 @@
+package de.rieckpil.blog.examples.chapter2;
+
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+import de.rieckpil.blog.Book;
+import de.rieckpil.blog.BookExportController;
+import de.rieckpil.blog.BookExportService;
+import de.rieckpil.blog.SecurityConfig;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(BookExportController.class)
+@Import(SecurityConfig.class)
+class BookExportControllerTest {
+
+  @Autowired private MockMvc mockMvc;
+
+  @MockitoBean private BookExportService bookExportService;
+
+  @Test
+  @DisplayName("Should return 401 Unauthorized when no authentication is provided")
+  void shouldReturnUnauthorizedWhenNoAuthentication() throws Exception {
+    mockMvc.perform(get("/api/books/export")).andExpect(status().isUnauthorized());
+
+    verify(bookExportService, times(0)).exportBooks(any());
+  }
+
+  @Test
+  @WithMockUser(roles = "USER")
+  @DisplayName("Should write one JSON document per book and line")
+  void shouldWriteOneBookPerLine() throws Exception {
+    when(bookExportService.exportBooks(any()))
+        .thenAnswer(
+            invocation -> {
+              Consumer<Book> consumer = invocation.getArgument(0);
+              consumer.accept(
+                  new Book(
+                      "9780134685991", "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6)));
+              consumer.accept(
+                  new Book(
+                      "9780132350884", "Clean Code", "Robert C. Martin", LocalDate.of(2008, 8, 1)));
+              return 2L;
+            });
+
+    String body =
+        mockMvc
+            .perform(get("/api/books/export"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+
+    assertThat(body.split("\n"))
+        .hasSize(2)
+        .satisfiesExactly(
+            first -> assertThat(first).startsWith("{").contains("\"title\":\"Effective Java\""),
+            second -> assertThat(second).startsWith("{").contains("\"isbn\":\"9780132350884\""));
+  }
+}
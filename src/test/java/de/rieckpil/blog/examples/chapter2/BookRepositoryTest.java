@@ -1,28 +1,49 @@
 package de.rieckpil.blog.examples.chapter2;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.regex.Pattern;
 
 import de.rieckpil.blog.Book;
+import de.rieckpil.blog.BookFilter;
 import de.rieckpil.blog.BookRepository;
 import de.rieckpil.blog.BookStatus;
+import de.rieckpil.blog.BookStatusCount;
+import de.rieckpil.blog.BookSummary;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.hibernate.autoconfigure.HibernatePropertiesCustomizer;
 import org.springframework.boot.jdbc.test.autoconfigure.AutoConfigureTestDatabase;
+import org.springframework.boot.jpa.test.autoconfigure.TestEntityManager;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.postgresql.PostgreSQLContainer;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 @DataJpaTest
 @Testcontainers
 @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(BookRepositoryTest.StatementCaptureConfig.class)
 class BookRepositoryTest {
 
   @Container @ServiceConnection
@@ -33,6 +54,7 @@ class BookRepositoryTest {
           .withPassword("test");
 
   @Autowired private BookRepository bookRepository;
+  @Autowired private TestEntityManager testEntityManager;
 
   @Nested
   @DisplayName("Native Query tests")
@@ -55,12 +77,302 @@ class BookRepositoryTest {
       bookRepository.saveAll(List.of(book1, book2, book3));
 
       // When: Searching for "rings"
-      List<Book> results = bookRepository.searchBooksByTitleWithRanking("rings");
+      List<BookSummary> results = bookRepository.searchBooksByTitleWithRanking("rings");
 
       // Then: Books with "rings" in title, ranked by relevance
       assertThat(results).hasSize(2);
-      assertThat(results.get(0).getTitle()).isEqualTo("The Lord of the Rings"); // Best match
-      assertThat(results.get(1).getTitle()).isEqualTo("Fellowship of the Ring"); // Contains "ring"
+      assertThat(results.get(0).title()).isEqualTo("The Lord of the Rings"); // Best match
+      assertThat(results.get(1).title()).isEqualTo("Fellowship of the Ring"); // Contains "ring"
+    }
+
+    @Test
+    void shouldPageThroughTopRankedTitleMatches() {
+      bookRepository.saveAll(
+          List.of(
+              new Book("978-1", "Ring", "Author A", LocalDate.of(2001, 1, 1)),
+              new Book("978-2", "The Ring of Rings", "Author B", LocalDate.of(2002, 1, 1)),
+              new Book("978-3", "A Ring for a Very Long Journey Home", "Author C", LocalDate.now()),
+              new Book("978-4", "No Match Here", "Author D", LocalDate.of(2004, 1, 1))));
+
+      List<BookSummary> firstPage = bookRepository.searchBooksByTitleWithRanking("ring", 2, 0);
+      List<BookSummary> secondPage = bookRepository.searchBooksByTitleWithRanking("ring", 2, 2);
+
+      assertThat(firstPage).extracting(BookSummary::isbn).containsExactly("978-2", "978-1");
+      assertThat(secondPage).extracting(BookSummary::isbn).containsExactly("978-3");
+    }
+  }
+
+  @Nested
+  @DisplayName("Author search tests")
+  class AuthorSearchTests {
+
+    @Test
+    void shouldFindAuthorSubstringCaseInsensitiveAndEscapeWildcards() {
+      bookRepository.saveAll(
+          List.of(
+              new Book("978-1", "Clean Code", "Robert C. Martin", LocalDate.of(2008, 8, 1)),
+              new Book("978-2", "The 100% Book", "Martina 100%", LocalDate.of(2010, 1, 1)),
+              new Book("978-3", "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6))));
+
+      assertThat(bookRepository.findByAuthorContainingIgnoreCase("MARTIN"))
+          .extracting(Book::getIsbn)
+          .containsExactly("978-2", "978-1");
+      assertThat(bookRepository.findByAuthorContainingIgnoreCase("0%"))
+          .extracting(Book::getIsbn)
+          .containsExactly("978-2");
+    }
+
+    @Test
+    void shouldFindSimilarAuthorsDespiteTypos() {
+      bookRepository.saveAll(
+          List.of(
+              new Book("978-1", "Clean Code", "Robert C. Martin", LocalDate.of(2008, 8, 1)),
+              new Book("978-2", "The Hobbit", "J.R.R. Tolkien", LocalDate.of(1937, 9, 21)),
+              new Book("978-3", "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6))));
+
+      assertThat(bookRepository.findByAuthorSimilarTo("tolkin", 10))
+          .extracting(BookSummary::isbn)
+          .containsExactly("978-2");
+      assertThat(bookRepository.findByAuthorSimilarTo("robert martn", 10))
+          .extracting(BookSummary::isbn)
+          .containsExactly("978-1");
+    }
+
+    @Test
+    @DisplayName("Should read author matches as summaries without managing them as entities")
+    void shouldReadAuthorMatchesAsSummaries() {
+      Book book = new Book("978-1", "Clean Code", "Robert C. Martin", LocalDate.of(2008, 8, 1));
+      book.setThumbnailUrl("https://example.com/cover.jpg");
+      book.setDescription("A handbook of agile software craftsmanship");
+      bookRepository.saveAll(
+          List.of(
+              book,
+              new Book(
+                  "978-2", "Clean Architecture", "Robert C. Martin", LocalDate.of(2017, 9, 10)),
+              new Book("978-3", "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6))));
+      testEntityManager.flush();
+      testEntityManager.clear();
+
+      List<BookSummary> summaries =
+          bookRepository.findSummariesByAuthorContainingIgnoreCase("martin", Limit.of(1));
+
+      assertThat(summaries)
+          .containsExactly(
+              new BookSummary(
+                  book.getId(),
+                  "978-1",
+                  "Clean Code",
+                  "Robert C. Martin",
+                  LocalDate.of(2008, 8, 1),
+                  "https://example.com/cover.jpg"));
+      assertThat(
+              testEntityManager
+                  .getEntityManager()
+                  .unwrap(Session.class)
+                  .getStatistics()
+                  .getEntityCount())
+          .isZero();
+    }
+  }
+
+  @Nested
+  @DisplayName("Keyset pagination tests")
+  class KeysetPaginationTests {
+
+    @Test
+    @DisplayName("Should scroll through all books by title without skipping duplicate titles")
+    void shouldScrollThroughAllBooksByTitle() {
+      bookRepository.saveAll(
+          List.of(
+              new Book("978-1", "Refactoring", "Martin Fowler", LocalDate.of(1999, 7, 8)),
+              new Book("978-2", "Clean Code", "Robert C. Martin", LocalDate.of(2008, 8, 1)),
+              new Book("978-3", "Clean Code", "Another Author", LocalDate.of(2009, 1, 1)),
+              new Book("978-4", "Domain-Driven Design", "Eric Evans", LocalDate.of(2003, 8, 20)),
+              new Book("978-5", "Accelerate", "Nicole Forsgren", LocalDate.of(2018, 3, 27))));
+
+      List<String> isbns = new ArrayList<>();
+      List<BookSummary> page = bookRepository.findBy(Sort.by("title", "id"), Limit.of(2));
+
+      while (!page.isEmpty()) {
+        page.forEach(book -> isbns.add(book.isbn()));
+        BookSummary last = page.getLast();
+        page = bookRepository.findPageAfterTitle(last.title(), last.id(), Limit.of(2));
+      }
+
+      assertThat(isbns).containsExactly("978-5", "978-2", "978-3", "978-4", "978-1");
+    }
+
+    @Test
+    @DisplayName("Should estimate the number of books from the planner statistics")
+    void shouldEstimateCountFromStatistics() {
+      assertThat(bookRepository.estimateCount()).isNotNegative();
+    }
+  }
+
+  @Nested
+  @DisplayName("Filter tests")
+  class FilterTests {
+
+    @Autowired private CapturingStatementInspector statementInspector;
+
+    @Test
+    @DisplayName("Should combine all filters and scroll through the matches by published date")
+    void shouldCombineFiltersAndScrollByPublishedDate() {
+      Book borrowed =
+          new Book("978-4", "Analysis Patterns", "Martin Fowler", LocalDate.of(1996, 10, 9));
+      borrowed.setStatus(BookStatus.BORROWED);
+      bookRepository.saveAll(
+          List.of(
+              new Book("978-1", "Refactoring", "Martin Fowler", LocalDate.of(1999, 7, 8)),
+              new Book("978-2", "Clean Code", "Robert C. Martin", LocalDate.of(2008, 8, 1)),
+              new Book(
+                  "978-3",
+                  "Patterns of Enterprise Application Architecture",
+                  "martin fowler",
+                  LocalDate.of(2002, 11, 15)),
+              new Book(
+                  "978-5", "Refactoring, 2nd Edition", "Martin Fowler", LocalDate.of(2018, 11, 19)),
+              new Book("978-6", "Marvelous Things", "Marvin Minsky", LocalDate.of(2000, 1, 1)),
+              borrowed));
+
+      BookFilter filter =
+          new BookFilter(
+              BookStatus.AVAILABLE, LocalDate.of(1999, 1, 1), LocalDate.of(2010, 12, 31), "MARTIN");
+
+      List<String> isbns = new ArrayList<>();
+      List<BookSummary> page = bookRepository.findFiltered(filter, null, null, Limit.of(1));
+
+      while (!page.isEmpty()) {
+        page.forEach(book -> isbns.add(book.isbn()));
+        BookSummary last = page.getLast();
+        page = bookRepository.findFiltered(filter, last.publishedDate(), last.id(), Limit.of(1));
+      }
+
+      assertThat(isbns).containsExactly("978-1", "978-3");
+    }
+
+    @Test
+    @DisplayName("Should match an author prefix ending with the highest code point")
+    void shouldMatchAuthorPrefixEndingWithHighestCodePoint() {
+      String highest = Character.toString(Character.MAX_CODE_POINT);
+      bookRepository.saveAll(
+          List.of(
+              new Book(
+                  "978-1", "Refactoring", "Martin " + highest + "Fowler", LocalDate.of(1999, 7, 8)),
+              new Book("978-2", "Clean Code", "Martin Fowler", LocalDate.of(2008, 8, 1)),
+              new Book("978-3", "Frankenstein", "Mary Shelley", LocalDate.of(1818, 1, 1)),
+              new Book("978-4", "Exclamations", "Martin!x", LocalDate.of(2000, 1, 1))));
+
+      // "Martin Fowler" sorts below the prefix, the others above every author starting with it
+      List<BookSummary> books =
+          bookRepository.findFiltered(
+              new BookFilter(null, null, null, "Martin " + highest), null, null, Limit.of(10));
+
+      assertThat(books).extracting(BookSummary::isbn).containsExactly("978-1");
+    }
+
+    @ParameterizedTest(name = "status={0}, from={1}, to={2}, author={3}")
+    @CsvSource({
+      ",,,,idx_books_published_date_id",
+      "AVAILABLE,,,,idx_books_available_published_date_id",
+      "BORROWED,,,,idx_books_status_published_date_id",
+      ",2010-01-01,2012-12-31,,idx_books_published_date_id",
+      "AVAILABLE,2010-01-01,,,idx_books_available_published_date_id",
+      "RESERVED,2010-01-01,2012-12-31,,idx_books_status_published_date_id",
+      ",,,Author 42,idx_books_author_prefix",
+      ",2010-01-01,2012-12-31,Author 42,idx_books_author_prefix",
+      "AVAILABLE,,,Author 42,idx_books_author_prefix",
+      "MAINTENANCE,2010-01-01,,Author 42,idx_books_author_prefix",
+    })
+    @DisplayName(
+        "Should plan every filter combination as index scan, even without parameter values")
+    void shouldUseIndexForEveryFilterCombination(
+        BookStatus status,
+        LocalDate publishedFrom,
+        LocalDate publishedTo,
+        String authorPrefix,
+        String expectedIndex) {
+      testEntityManager
+          .getEntityManager()
+          .createNativeQuery(
+              """
+              INSERT INTO books (isbn, title, author, published_date, status)
+              SELECT 'isbn-' || i, 'Title ' || i, 'Author ' || (i % 1000), DATE '1950-01-01' + i % 25000,
+                     CASE WHEN i % 10 = 0 THEN 'BORROWED' WHEN i % 25 = 1 THEN 'RESERVED'
+                          WHEN i % 50 = 2 THEN 'MAINTENANCE' ELSE 'AVAILABLE' END
+              FROM generate_series(1, 50000) AS i
+              """)
+          .executeUpdate();
+      testEntityManager.getEntityManager().createNativeQuery("ANALYZE books").executeUpdate();
+
+      BookFilter filter = new BookFilter(status, publishedFrom, publishedTo, authorPrefix);
+      bookRepository.findFiltered(filter, null, null, Limit.of(50));
+      List<String> firstPagePlan = explainGenericPlan(statementInspector.lastSql());
+
+      bookRepository.findFiltered(filter, LocalDate.of(2011, 1, 1), 1L, Limit.of(50));
+      List<String> nextPagePlan = explainGenericPlan(statementInspector.lastSql());
+
+      assertThat(firstPagePlan)
+          .noneMatch(line -> line.contains("Seq Scan"))
+          .anyMatch(line -> line.contains("Index") && line.contains(expectedIndex));
+      assertThat(nextPagePlan)
+          .noneMatch(line -> line.contains("Seq Scan"))
+          .anyMatch(line -> line.contains("Index") && line.contains(expectedIndex));
+    }
+
+    /**
+     * Plans the statement as a generic plan, i.e. without looking at parameter values, like
+     * PostgreSQL may do for prepared statements that are executed repeatedly.
+     */
+    private List<String> explainGenericPlan(String sql) {
+      int[] parameters = {0};
+      String numberedSql =
+          Pattern.compile("\\?").matcher(sql).replaceAll(match -> "\\$" + ++parameters[0]);
+      EntityManager entityManager = testEntityManager.getEntityManager();
+
+      entityManager.createNativeQuery("PREPARE filter_query AS " + numberedSql).executeUpdate();
+      entityManager
+          .createNativeQuery("SET LOCAL plan_cache_mode = force_generic_plan")
+          .executeUpdate();
+      List<String> plan =
+          entityManager
+              .unwrap(Session.class)
+              .createNativeQuery(
+                  "EXPLAIN EXECUTE filter_query("
+                      + String.join(", ", Collections.nCopies(parameters[0], "NULL"))
+                      + ")",
+                  String.class)
+              .getResultList();
+      entityManager.createNativeQuery("DEALLOCATE filter_query").executeUpdate();
+
+      return plan;
+    }
+  }
+
+  @Nested
+  @DisplayName("Batch read tests")
+  class BatchReadTests {
+
+    @Test
+    @DisplayName("Should read the books of many ids or ISBNs with one query")
+    void shouldReadBooksByIdsAndIsbns() {
+      Book refactoring =
+          new Book("978-1", "Refactoring", "Martin Fowler", LocalDate.of(1999, 7, 8));
+      Book cleanCode =
+          new Book("978-2", "Clean Code", "Robert C. Martin", LocalDate.of(2008, 8, 1));
+      Book effectiveJava =
+          new Book("978-3", "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6));
+      bookRepository.saveAll(List.of(refactoring, cleanCode, effectiveJava));
+      testEntityManager.flush();
+
+      assertThat(
+              bookRepository.findAllByIds(
+                  new Long[] {refactoring.getId(), effectiveJava.getId(), -1L}))
+          .extracting(Book::getIsbn)
+          .containsExactlyInAnyOrder("978-1", "978-3");
+      assertThat(bookRepository.findAllByIsbns(new String[] {"978-2", "978-unknown"}))
+          .extracting(Book::getTitle)
+          .containsExactly("Clean Code");
     }
   }
 
@@ -104,6 +416,124 @@ class BookRepositoryTest {
     }
   }
 
+  @Nested
+  @DisplayName("Status counter tests")
+  class StatusCounterTests {
+
+    @Test
+    @DisplayName("Should keep the status counters current on insert, update and delete")
+    void shouldKeepStatusCountersCurrent() {
+      Book borrowed = new Book("978-1", "Refactoring", "Martin Fowler", LocalDate.of(1999, 7, 8));
+      Book unchanged =
+          new Book("978-2", "Clean Code", "Robert C. Martin", LocalDate.of(2008, 8, 1));
+      Book deleted = new Book("978-3", "Effective Java", "Joshua Bloch", LocalDate.of(2018, 1, 6));
+      deleted.setStatus(BookStatus.MAINTENANCE);
+      bookRepository.saveAll(List.of(borrowed, unchanged, deleted));
+      testEntityManager.flush();
+
+      bookRepository.updateById(
+          borrowed.getId(),
+          "Refactoring",
+          "Martin Fowler",
+          LocalDate.of(1999, 7, 8),
+          BookStatus.BORROWED.name(),
+          null);
+      bookRepository.updateById(
+          unchanged.getId(),
+          "Clean Code, 2nd Edition",
+          "Robert C. Martin",
+          LocalDate.of(2008, 8, 1),
+          BookStatus.AVAILABLE.name(),
+          null);
+      bookRepository.deleteBookById(deleted.getId());
+
+      assertThat(bookRepository.countByStatus())
+          .extracting(BookStatusCount::getStatus, BookStatusCount::getCount)
+          .containsExactlyInAnyOrder(
+              tuple(BookStatus.AVAILABLE, 1L),
+              tuple(BookStatus.BORROWED, 1L),
+              tuple(BookStatus.RESERVED, 0L),
+              tuple(BookStatus.MAINTENANCE, 0L));
+    }
+  }
+
+  @Nested
+  @DisplayName("Write by id tests")
+  class WriteByIdTests {
+
+    @Test
+    @DisplayName("Should update a book and return the new state in one statement")
+    void shouldUpdateBookById() {
+      Book book = bookRepository.save(new Book("978-1", "Draft", "Unknown", LocalDate.now()));
+      testEntityManager.flush();
+      testEntityManager.clear();
+
+      Optional<Book> result =
+          bookRepository.updateById(
+              book.getId(),
+              "Refactoring",
+              "Martin Fowler",
+              LocalDate.of(2018, 11, 20),
+              BookStatus.BORROWED.name(),
+              null);
+
+      assertThat(result)
+          .hasValueSatisfying(
+              updated -> {
+                assertThat(updated.getId()).isEqualTo(book.getId());
+                assertThat(updated.getIsbn()).isEqualTo("978-1");
+                assertThat(updated.getTitle()).isEqualTo("Refactoring");
+                assertThat(updated.getAuthor()).isEqualTo("Martin Fowler");
+                assertThat(updated.getStatus()).isEqualTo(BookStatus.BORROWED);
+                assertThat(updated.getVersion()).isEqualTo(book.getVersion() + 1);
+              });
+    }
+
+    @Test
+    @DisplayName("Should only update a book that still has the expected version")
+    void shouldUpdateBookOnlyWithExpectedVersion() {
+      Book book = bookRepository.save(new Book("978-1", "Draft", "Unknown", LocalDate.now()));
+      testEntityManager.flush();
+      testEntityManager.clear();
+      long version = book.getVersion();
+
+      Optional<Book> stale =
+          bookRepository.updateById(
+              book.getId(), "Stale", "Unknown", LocalDate.now(), "AVAILABLE", version + 1);
+      Optional<Book> current =
+          bookRepository.updateById(
+              book.getId(), "Current", "Unknown", LocalDate.now(), "AVAILABLE", version);
+
+      assertThat(stale).isEmpty();
+      assertThat(current).map(Book::getTitle).hasValue("Current");
+    }
+
+    @Test
+    @DisplayName("Should return empty when updating a missing book")
+    void shouldReturnEmptyWhenUpdatingMissingBook() {
+      Optional<Book> result =
+          bookRepository.updateById(
+              42L,
+              "Refactoring",
+              "Martin Fowler",
+              LocalDate.now(),
+              BookStatus.AVAILABLE.name(),
+              null);
+
+      assertThat(result).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should report the number of deleted books")
+    void shouldDeleteBookById() {
+      Book book = bookRepository.save(new Book("978-1", "Draft", "Unknown", LocalDate.now()));
+
+      assertThat(bookRepository.deleteBookById(book.getId())).isEqualTo(1);
+      assertThat(bookRepository.deleteBookById(book.getId())).isZero();
+      assertThat(bookRepository.count()).isZero();
+    }
+  }
+
   @Nested
   @DisplayName("Basic repository operations")
   class BasicOperationsTests {
@@ -167,4 +597,36 @@ class BookRepositoryTest {
       assertThat(bookRepository.count()).isZero();
     }
   }
+
+  /** Records the SQL Hibernate sends, so tests can have PostgreSQL explain it. */
+  @TestConfiguration(proxyBeanMethods = false)
+  static class StatementCaptureConfig {
+
+    @Bean
+    CapturingStatementInspector capturingStatementInspector() {
+      return new CapturingStatementInspector();
+    }
+
+    @Bean
+    HibernatePropertiesCustomizer statementInspectorCustomizer(
+        CapturingStatementInspector statementInspector) {
+      return properties ->
+          properties.put(AvailableSettings.STATEMENT_INSPECTOR, statementInspector);
+    }
+  }
+
+  static class CapturingStatementInspector implements StatementInspector {
+
+    private volatile String lastSql;
+
+    @Override
+    public String inspect(String sql) {
+      this.lastSql = sql;
+      return sql;
+    }
+
+    String lastSql() {
+      return lastSql;
+    }
+  }
 }
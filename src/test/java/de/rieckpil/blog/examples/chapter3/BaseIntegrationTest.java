@@ -4,6 +4,7 @@ import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.parallel.ResourceLock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.resttestclient.TestRestTemplate;
 import org.springframework.boot.resttestclient.autoconfigure.AutoConfigureTestRestTemplate;
@@ -20,6 +21,9 @@ import org.testcontainers.postgresql.PostgreSQLContainer;
 @Testcontainers
 @ActiveProfiles("test")
 @AutoConfigureTestRestTemplate
+// subclasses share the WireMock server, which each of them resets, and the enrichment worker
+// calls it in the background, after a test has returned from its requests
+@ResourceLock("openlibrary-stub")
 public abstract class BaseIntegrationTest {
 
   @Container @ServiceConnection
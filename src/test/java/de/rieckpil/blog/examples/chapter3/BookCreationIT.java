@@ -1,12 +1,92 @@
 package de.rieckpil.blog.examples.chapter3;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import de.rieckpil.blog.BookRepository;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.assertj.core.api.Assertions.assertThat;
 
 class BookCreationIT extends BaseIntegrationTest {
 
+  @Autowired private BookRepository bookRepository;
+
   @Test
   void shouldCreateBook() {
     // Test implementation
     // All infrastructure already set up!
   }
+
+  @Test
+  void shouldCreateBookOnlyOnceWhenSameIsbnIsPostedConcurrently() throws Exception {
+    String isbn = "978-0201633610";
+    int parallelRequests = 20;
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.setBasicAuth("admin", "admin");
+    HttpEntity<String> createRequest =
+        new HttpEntity<>(
+            """
+            {
+              "isbn": "%s",
+              "title": "Design Patterns",
+              "author": "Erich Gamma",
+              "publishedDate": "1994-10-31"
+            }
+            """
+                .formatted(isbn),
+            headers);
+
+    CountDownLatch start = new CountDownLatch(1);
+    Callable<HttpStatusCode> postBook =
+        () -> {
+          start.await();
+          return restTemplate
+              .exchange("/api/books", HttpMethod.POST, createRequest, Void.class)
+              .getStatusCode();
+        };
+
+    List<HttpStatusCode> statusCodes;
+    try (ExecutorService executor = Executors.newFixedThreadPool(parallelRequests)) {
+      List<Future<HttpStatusCode>> responses =
+          IntStream.range(0, parallelRequests).mapToObj(i -> executor.submit(postBook)).toList();
+      start.countDown();
+
+      statusCodes = responses.stream().map(BookCreationIT::await).toList();
+    }
+
+    assertThat(statusCodes)
+        .containsOnly(HttpStatus.CREATED, HttpStatus.CONFLICT)
+        .filteredOn(HttpStatus.CREATED::equals)
+        .hasSize(1);
+    assertThat(bookRepository.findByIsbn(isbn)).isPresent();
+    // creates leave OpenLibrary to the enrichment worker, which looks the created book up once and
+    // drops the job as OpenLibrary does not know the ISBN here
+    assertThat(wireMockServer.findAll(getRequestedFor(urlEqualTo("/isbn/" + isbn))))
+        .hasSizeLessThanOrEqualTo(1);
+  }
+
+  private static HttpStatusCode await(Future<HttpStatusCode> response) {
+    try {
+      return response.get();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
 }
@@ -0,0 +1,301 @@
+package de.rieckpil.blog.examples.chapter3;
+
+import java.time.Duration;
+import java.time.LocalDate;
+
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import de.rieckpil.blog.Book;
+import de.rieckpil.blog.BookEnrichmentJob;
+import de.rieckpil.blog.BookEnrichmentJobRepository;
+import de.rieckpil.blog.BookRepository;
+import de.rieckpil.blog.BookService;
+import de.rieckpil.blog.BookStatus;
+import de.rieckpil.blog.BookUpdateRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class BookEnrichmentIT extends BaseIntegrationTest {
+
+  private static final String METADATA =
+      """
+      {"title": "Working Effectively with Legacy Code", "covers": [2345], "description": "Tests first"}
+      """;
+
+  @Autowired private BookRepository bookRepository;
+
+  @Autowired private BookEnrichmentJobRepository jobRepository;
+
+  @Autowired private BookService bookService;
+
+  @Test
+  void shouldCreateBookWithoutWaitingForOpenLibrary() {
+    Duration upstreamDelay = Duration.ofSeconds(3);
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/978-0131177055"))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(METADATA)
+                    .withFixedDelay((int) upstreamDelay.toMillis())));
+
+    long start = System.nanoTime();
+    Long bookId = createBook("978-0131177055");
+    Duration createLatency = Duration.ofNanos(System.nanoTime() - start);
+
+    assertThat(createLatency).isLessThan(upstreamDelay);
+    assertThat(bookRepository.findById(bookId)).map(Book::getThumbnailUrl).isEmpty();
+
+    await()
+        .atMost(Duration.ofSeconds(10))
+        .untilAsserted(
+            () ->
+                assertThat(bookRepository.findById(bookId))
+                    .hasValueSatisfying(
+                        book -> {
+                          assertThat(book.getThumbnailUrl())
+                              .isEqualTo("https://covers.openlibrary.org/b/id/2345-M.jpg");
+                          assertThat(book.getDescription()).isEqualTo("Tests first");
+                        }));
+    assertThat(jobRepository.findAll())
+        .extracting(BookEnrichmentJob::getBookId)
+        .doesNotContain(bookId);
+  }
+
+  @Test
+  void shouldReadDescriptionGivenAsTypedText() {
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/978-0201616224"))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(
+                        """
+                        {"title": "The Pragmatic Programmer", "covers": [3456],
+                         "description": {"type": "/type/text", "value": "From journeyman to master"}}
+                        """)));
+
+    Long bookId = createBook("978-0201616224");
+
+    await()
+        .atMost(Duration.ofSeconds(10))
+        .untilAsserted(
+            () ->
+                assertThat(bookRepository.findById(bookId))
+                    .hasValueSatisfying(
+                        book -> {
+                          assertThat(book.getThumbnailUrl())
+                              .isEqualTo("https://covers.openlibrary.org/b/id/3456-M.jpg");
+                          assertThat(book.getDescription()).isEqualTo("From journeyman to master");
+                        }));
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/978-0201616224")));
+  }
+
+  @Test
+  void shouldRetryUntilOpenLibraryRecovers() {
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/978-0321125217"))
+            .inScenario("outage")
+            .whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(aResponse().withStatus(503))
+            .willSetStateTo("recovered"));
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/978-0321125217"))
+            .inScenario("outage")
+            .whenScenarioStateIs("recovered")
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(METADATA)));
+
+    Long bookId = createBook("978-0321125217");
+
+    await()
+        .atMost(Duration.ofSeconds(10))
+        .untilAsserted(
+            () ->
+                assertThat(bookRepository.findById(bookId))
+                    .map(Book::getThumbnailUrl)
+                    .hasValue("https://covers.openlibrary.org/b/id/2345-M.jpg"));
+    wireMockServer.verify(2, getRequestedFor(urlEqualTo("/isbn/978-0321125217")));
+  }
+
+  @Test
+  void shouldReplaceAuthorWithNamesFromOpenLibrary() {
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/978-0201485677"))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(
+                        """
+                        {"title": "Refactoring", "authors": [{"key": "/authors/OL2653686A"},
+                         {"key": "/authors/OL236174A"}]}
+                        """)));
+    stubAuthor("OL2653686A", "Martin Fowler");
+    stubAuthor("OL236174A", "Kent Beck");
+
+    Long bookId = createBook("978-0201485677");
+
+    await()
+        .atMost(Duration.ofSeconds(10))
+        .untilAsserted(
+            () ->
+                assertThat(bookRepository.findById(bookId))
+                    .map(Book::getAuthor)
+                    .hasValue("Martin Fowler, Kent Beck"));
+  }
+
+  @Test
+  void shouldKeepAuthorCorrectedBeforeEnrichmentCompletes() {
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/978-0321349606"))
+            .inScenario("correction")
+            .whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(aResponse().withStatus(503)));
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/978-0321349606"))
+            .inScenario("correction")
+            .whenScenarioStateIs("corrected")
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(
+                        """
+                        {"title": "Java Concurrency in Practice", "covers": [2345],
+                         "authors": [{"key": "/authors/OL2624734A"}]}
+                        """)));
+    stubAuthor("OL2624734A", "Brian Goetz");
+
+    Long bookId = createBook("978-0321349606");
+    bookService.updateBook(
+        bookId,
+        new BookUpdateRequest(
+            "Some Book", "Brian Goetz et al.", LocalDate.of(2004, 9, 22), BookStatus.AVAILABLE),
+        null);
+    wireMockServer.setScenarioState("correction", "corrected");
+
+    await()
+        .atMost(Duration.ofSeconds(10))
+        .untilAsserted(
+            () ->
+                assertThat(bookRepository.findById(bookId))
+                    .hasValueSatisfying(
+                        book -> {
+                          assertThat(book.getThumbnailUrl())
+                              .isEqualTo("https://covers.openlibrary.org/b/id/2345-M.jpg");
+                          assertThat(book.getAuthor()).isEqualTo("Brian Goetz et al.");
+                        }));
+  }
+
+  @Test
+  void shouldCompleteJobWhenAuthorsCannotBeResolved() {
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/978-0201835953"))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(
+                        """
+                        {"title": "The Mythical Man-Month", "covers": [2345],
+                         "authors": [{"key": "/authors/OL1000000A"}]}
+                        """)));
+    wireMockServer.stubFor(
+        get(urlEqualTo("/authors/OL1000000A.json")).willReturn(aResponse().withStatus(500)));
+
+    Long bookId = createBook("978-0201835953");
+
+    await()
+        .atMost(Duration.ofSeconds(10))
+        .untilAsserted(
+            () ->
+                assertThat(bookRepository.findById(bookId))
+                    .hasValueSatisfying(
+                        book -> {
+                          assertThat(book.getThumbnailUrl())
+                              .isEqualTo("https://covers.openlibrary.org/b/id/2345-M.jpg");
+                          assertThat(book.getAuthor()).isEqualTo("Some Author");
+                        }));
+    assertThat(jobRepository.findAll())
+        .extracting(BookEnrichmentJob::getBookId)
+        .doesNotContain(bookId);
+  }
+
+  @Test
+  void shouldDeadLetterJobThatKeepsFailing() {
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/978-0321146533")).willReturn(aResponse().withStatus(500)));
+
+    Long bookId = createBook("978-0321146533");
+
+    // test configuration: 3 attempts, 100 ms initial backoff
+    await()
+        .atMost(Duration.ofSeconds(10))
+        .untilAsserted(
+            () ->
+                assertThat(jobRepository.findAll())
+                    .filteredOn(job -> job.getBookId().equals(bookId))
+                    .singleElement()
+                    .satisfies(
+                        job -> {
+                          assertThat(job.getDeadLetteredAt()).isNotNull();
+                          assertThat(job.getAttempts()).isEqualTo(3);
+                          assertThat(job.getLastError()).contains("500");
+                        }));
+    wireMockServer.verify(3, getRequestedFor(urlEqualTo("/isbn/978-0321146533")));
+    assertThat(bookRepository.findById(bookId)).map(Book::getThumbnailUrl).isEmpty();
+  }
+
+  private void stubAuthor(String id, String name) {
+    wireMockServer.stubFor(
+        get(urlEqualTo("/authors/" + id + ".json"))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"key\": \"/authors/%s\", \"name\": \"%s\"}".formatted(id, name))));
+  }
+
+  private Long createBook(String isbn) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.setBasicAuth("librarian", "librarian");
+
+    String createRequest =
+        """
+        {
+          "isbn": "%s",
+          "title": "Some Book",
+          "author": "Some Author",
+          "publishedDate": "2004-09-22"
+        }
+        """
+            .formatted(isbn);
+
+    ResponseEntity<Void> response =
+        restTemplate.exchange(
+            "/api/books", HttpMethod.POST, new HttpEntity<>(createRequest, headers), Void.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+    String location = response.getHeaders().getLocation().toString();
+    return Long.valueOf(location.substring(location.lastIndexOf('/') + 1));
+  }
+}
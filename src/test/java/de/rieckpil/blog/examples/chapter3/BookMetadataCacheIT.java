@@ -0,0 +1,101 @@
+package de.rieckpil.blog.examples.chapter3;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import de.rieckpil.blog.BookMetadataCache;
+import de.rieckpil.blog.BookMetadataCacheEntry;
+import de.rieckpil.blog.BookMetadataCacheRepository;
+import de.rieckpil.blog.OpenLibraryApiClient;
+import de.rieckpil.blog.OpenLibraryResilience;
+import de.rieckpil.blog.OpenLibraryResponseDecoder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import tools.jackson.databind.json.JsonMapper;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BookMetadataCacheIT extends BaseIntegrationTest {
+
+  @Autowired private OpenLibraryApiClient openLibraryApiClient;
+
+  @Autowired private BookMetadataCacheRepository metadataCacheRepository;
+
+  @Autowired private WebClient openLibraryWebClient;
+
+  @Autowired private JsonMapper jsonMapper;
+
+  @Autowired private OpenLibraryResponseDecoder responseDecoder;
+
+  @Autowired private OpenLibraryResilience resilience;
+
+  @Test
+  void shouldAnswerFromDatabaseAfterRestart() {
+    stubMetadata("978-0596007126", "Head First Design Patterns");
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/978-0000000404")).willReturn(aResponse().withStatus(404)));
+
+    openLibraryApiClient.getBookByIsbn("978-0596007126");
+    assertThrows(
+        WebClientResponseException.NotFound.class,
+        () -> openLibraryApiClient.getBookByIsbn("978-0000000404"));
+
+    OpenLibraryApiClient restarted = clientWithEmptyMemory();
+
+    assertThat(restarted.getBookByIsbn("978-0596007126").title())
+        .isEqualTo("Head First Design Patterns");
+    assertThrows(
+        WebClientResponseException.NotFound.class, () -> restarted.getBookByIsbn("978-0000000404"));
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/978-0596007126")));
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/978-0000000404")));
+  }
+
+  @Test
+  void shouldReplaceExpiredResponse() {
+    metadataCacheRepository.store(
+        "978-0134757599", "{\"title\": \"Refactoring\"}", Instant.now().minusSeconds(1));
+    stubMetadata("978-0134757599", "Refactoring, Second Edition");
+
+    assertThat(clientWithEmptyMemory().getBookByIsbn("978-0134757599").title())
+        .isEqualTo("Refactoring, Second Edition");
+    assertThat(metadataCacheRepository.findById("978-0134757599"))
+        .map(BookMetadataCacheEntry::getPayload)
+        .hasValueSatisfying(payload -> assertThat(payload).contains("Second Edition"));
+  }
+
+  private OpenLibraryApiClient clientWithEmptyMemory() {
+    return new OpenLibraryApiClient(
+        openLibraryWebClient,
+        new BookMetadataCache(
+            metadataCacheRepository,
+            new SimpleMeterRegistry(),
+            100,
+            Duration.ofHours(1),
+            Duration.ofHours(1)),
+        jsonMapper,
+        responseDecoder,
+        resilience,
+        50,
+        4,
+        100,
+        Duration.ofHours(1));
+  }
+
+  private static void stubMetadata(String isbn, String title) {
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/" + isbn))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"title\": \"%s\"}".formatted(title))));
+  }
+}
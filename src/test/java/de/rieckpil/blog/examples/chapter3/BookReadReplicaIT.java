@@ -0,0 +1,195 @@
+package de.rieckpil.blog.examples.chapter3;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import de.rieckpil.blog.Book;
+import de.rieckpil.blog.BookCreationRequest;
+import de.rieckpil.blog.BookPage;
+import de.rieckpil.blog.BookRepository;
+import de.rieckpil.blog.BookService;
+import de.rieckpil.blog.BookStatus;
+import de.rieckpil.blog.BookSummary;
+import de.rieckpil.blog.BookUpdateRequest;
+import jakarta.persistence.EntityManagerFactory;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.resttestclient.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.postgresql.PostgreSQLContainer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Runs against a second, independent PostgreSQL instance acting as read replica. Without
+ * replication between the two, every book shows which instance served the read.
+ */
+class BookReadReplicaIT extends BaseIntegrationTest {
+
+  @Container
+  static PostgreSQLContainer replica =
+      new PostgreSQLContainer("postgres:16-alpine")
+          .withDatabaseName("testdb")
+          .withUsername("test")
+          .withPassword("test");
+
+  @DynamicPropertySource
+  static void configureReplica(DynamicPropertyRegistry registry) {
+    registry.add("book.datasource.replica-urls", replica::getJdbcUrl);
+    registry.add("book.datasource.read-your-writes-window", () -> "2s");
+  }
+
+  @BeforeAll
+  static void migrateReplica() {
+    Flyway.configure()
+        .dataSource(replica.getJdbcUrl(), replica.getUsername(), replica.getPassword())
+        .load()
+        .migrate();
+  }
+
+  @Autowired private BookRepository bookRepository;
+
+  @Autowired private BookService bookService;
+
+  @Autowired private EntityManagerFactory entityManagerFactory;
+
+  @Test
+  void shouldServeReadsFromReplicaAndWritesFromPrimary() {
+    insertIntoReplica("978-replica-1", "Only on the replica");
+    bookRepository.save(
+        new Book("978-primary-1", "Only on the primary", "Author", LocalDate.of(2020, 1, 1)));
+
+    assertThat(listIsbns(restTemplate)).contains("978-replica-1").doesNotContain("978-primary-1");
+  }
+
+  @Test
+  void shouldReadOwnWritesFromPrimaryWithinWindow() {
+    String isbn = "978-0321127426";
+    wireMockServer.stubFor(
+        get(urlEqualTo("/isbn/" + isbn))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"title\": \"Patterns of Enterprise Application Architecture\"}")));
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.setBasicAuth("librarian", "librarian");
+    String createRequest =
+        """
+        {
+          "isbn": "%s",
+          "title": "Patterns of Enterprise Application Architecture",
+          "author": "Martin Fowler",
+          "publishedDate": "2002-11-15"
+        }
+        """
+            .formatted(isbn);
+
+    assertThat(
+            restTemplate
+                .exchange(
+                    "/api/books",
+                    HttpMethod.POST,
+                    new HttpEntity<>(createRequest, headers),
+                    Void.class)
+                .getStatusCode())
+        .isEqualTo(HttpStatus.CREATED);
+
+    TestRestTemplate writer = restTemplate.withBasicAuth("librarian", "librarian");
+    assertThat(listIsbns(writer)).contains(isbn);
+    assertThat(listIsbns(restTemplate)).doesNotContain(isbn);
+
+    await()
+        .atMost(Duration.ofSeconds(5))
+        .untilAsserted(() -> assertThat(listIsbns(writer)).doesNotContain(isbn));
+  }
+
+  @Test
+  void shouldNotCacheSearchesReadFromReplicaRightAfterWrite() {
+    bookService.createBook(
+        new BookCreationRequest(
+            "978-0201485677", "Refactoring", "Martin Fowler", LocalDate.of(1999, 7, 8)));
+
+    assertThat(bookService.searchBooksByTitle("refactoring", 0, 20)).isEmpty();
+
+    insertIntoReplica("978-0201485677", "Refactoring");
+
+    assertThat(bookService.searchBooksByTitle("refactoring", 0, 20))
+        .extracting(BookSummary::isbn)
+        .containsExactly("978-0201485677");
+  }
+
+  @Test
+  void shouldNotCacheBooksReadFromReplicaRightAfterWrite() {
+    Book book =
+        bookRepository.save(
+            new Book(
+                "978-0201616224",
+                "The Pragmatic Programmer",
+                "Author",
+                LocalDate.of(1999, 10, 20)));
+    insertIntoReplica(book.getId(), "978-0201616224", "The Pragmatic Programmer");
+
+    bookService.updateBook(
+        book.getId(),
+        new BookUpdateRequest(
+            "The Pragmatic Programmer",
+            "Andrew Hunt",
+            LocalDate.of(1999, 10, 20),
+            BookStatus.AVAILABLE),
+        null);
+
+    assertThat(bookService.getBookById(book.getId())).map(Book::getAuthor).hasValue("Author");
+    assertThat(entityManagerFactory.getCache().contains(Book.class, book.getId())).isFalse();
+  }
+
+  private static List<String> listIsbns(TestRestTemplate client) {
+    BookPage page = client.getForObject("/api/books?size=500", BookPage.class);
+    return page.content().stream().map(BookSummary::isbn).toList();
+  }
+
+  private static void insertIntoReplica(Long id, String isbn, String title) {
+    new JdbcTemplate(
+            new DriverManagerDataSource(
+                replica.getJdbcUrl(), replica.getUsername(), replica.getPassword()))
+        .update(
+            "INSERT INTO books (id, isbn, title, author, published_date, status) VALUES (?, ?, ?, ?, ?, ?)",
+            id,
+            isbn,
+            title,
+            "Author",
+            LocalDate.of(2020, 1, 1),
+            "AVAILABLE");
+  }
+
+  private static void insertIntoReplica(String isbn, String title) {
+    new JdbcTemplate(
+            new DriverManagerDataSource(
+                replica.getJdbcUrl(), replica.getUsername(), replica.getPassword()))
+        .update(
+            "INSERT INTO books (isbn, title, author, published_date, status) VALUES (?, ?, ?, ?, ?)",
+            isbn,
+            title,
+            "Author",
+            LocalDate.of(2020, 1, 1),
+            "AVAILABLE");
+  }
+}
@@ -0,0 +1,125 @@
+package de.rieckpil.blog.examples.chapter3;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import de.rieckpil.blog.Book;
+import de.rieckpil.blog.BookRepository;
+import de.rieckpil.blog.BookSearchCache;
+import de.rieckpil.blog.BookService;
+import de.rieckpil.blog.BookStatus;
+import de.rieckpil.blog.BookSummary;
+import de.rieckpil.blog.BookUpdateRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BookSearchCacheIT extends BaseIntegrationTest {
+
+  @Autowired private BookService bookService;
+
+  @Autowired private BookSearchCache bookSearchCache;
+
+  @Autowired private BookRepository bookRepository;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Test
+  void shouldServeRepeatedSearchWithSameNormalizedTermsFromCache() {
+    bookRepository.save(
+        new Book("978-search-1", "Quixotic Quokkas", "Ada Example", LocalDate.of(2001, 1, 1)));
+    double hits = cacheHits(BookSearchCache.TITLE_SEARCH_CACHE);
+
+    bookService.searchBooksByTitle("Quixotic  Quokkas ", 0, 20);
+    assertThat(bookService.searchBooksByTitle("quixotic quokkas", 0, 20))
+        .extracting(BookSummary::isbn)
+        .containsExactly("978-search-1");
+
+    assertThat(cacheHits(BookSearchCache.TITLE_SEARCH_CACHE)).isEqualTo(hits + 1);
+    assertThat(
+            meterRegistry
+                .get("cache.gets")
+                .tag("cache", BookSearchCache.TITLE_SEARCH_CACHE)
+                .tag("result", "miss")
+                .functionCounter()
+                .count())
+        .isPositive();
+    assertThat(
+            meterRegistry
+                .get("book.search.cache.load")
+                .tag("cache", BookSearchCache.TITLE_SEARCH_CACHE)
+                .timer()
+                .count())
+        .isPositive();
+  }
+
+  @Test
+  void shouldEvictSearchesOnUpdate() {
+    Book book =
+        bookRepository.save(
+            new Book(
+                "978-search-2", "Whimsical Walruses", "Basil Sample", LocalDate.of(2002, 1, 1)));
+
+    assertThat(bookService.searchBooksByTitle("zealous", 0, 20)).isEmpty();
+    assertThat(bookService.searchBooksByAuthor("basil", false, 20)).hasSize(1);
+
+    bookService.updateBook(
+        book.getId(),
+        new BookUpdateRequest(
+            "Zealous Walruses", "Dora Instance", LocalDate.of(2002, 1, 1), BookStatus.AVAILABLE),
+        null);
+
+    assertThat(bookService.searchBooksByTitle("zealous", 0, 20))
+        .extracting(BookSummary::id)
+        .containsExactly(book.getId());
+    assertThat(bookService.searchBooksByAuthor("basil", false, 20)).isEmpty();
+  }
+
+  @Test
+  void shouldNotCacheSearchLoadedConcurrentlyWithWrite() {
+    Book book =
+        bookRepository.save(
+            new Book("978-search-3", "Gallant Gnus", "Cora Specimen", LocalDate.of(2003, 1, 1)));
+
+    List<BookSummary> loadedBeforeWrite =
+        bookSearchCache.searchByTitle(
+            "gallant",
+            0,
+            20,
+            terms -> {
+              List<BookSummary> books = bookRepository.searchBooksByTitleWithRanking(terms, 20, 0);
+              bookService.deleteBook(book.getId());
+              return books;
+            });
+
+    assertThat(loadedBeforeWrite).hasSize(1);
+    assertThat(bookService.searchBooksByTitle("gallant", 0, 20)).isEmpty();
+  }
+
+  @Test
+  void shouldEvictSearchesOnDelete() {
+    Book book =
+        bookRepository.save(
+            new Book(
+                "978-search-4", "Nimble Narwhals", "Eve Placeholder", LocalDate.of(2004, 1, 1)));
+
+    assertThat(bookService.searchBooksByAuthor("placeholder", false, 20)).hasSize(1);
+    assertThat(bookService.searchBooksByAuthor("eve placehldr", true, 20)).hasSize(1);
+
+    bookService.deleteBook(book.getId());
+
+    assertThat(bookService.searchBooksByAuthor("placeholder", false, 20)).isEmpty();
+    assertThat(bookService.searchBooksByAuthor("eve placehldr", true, 20)).isEmpty();
+  }
+
+  private double cacheHits(String cacheName) {
+    return meterRegistry
+        .get("cache.gets")
+        .tag("cache", cacheName)
+        .tag("result", "hit")
+        .functionCounter()
+        .count();
+  }
+}
@@ -0,0 +1,121 @@
+package de.rieckpil.blog.examples.chapter3;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+import de.rieckpil.blog.Book;
+import de.rieckpil.blog.BookEnrichmentJobRepository;
+import de.rieckpil.blog.BookExportService;
+import de.rieckpil.blog.BookMetadataCacheRepository;
+import de.rieckpil.blog.BookRepository;
+import de.rieckpil.blog.BookService;
+import de.rieckpil.blog.BookStatus;
+import de.rieckpil.blog.BookUpdateRequest;
+import jakarta.persistence.Cache;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BookSecondLevelCacheIT extends BaseIntegrationTest {
+
+  @Autowired private BookService bookService;
+
+  @Autowired private BookRepository bookRepository;
+
+  @Autowired private BookMetadataCacheRepository metadataCacheRepository;
+
+  @Autowired private BookEnrichmentJobRepository jobRepository;
+
+  @Autowired private BookExportService bookExportService;
+
+  @Autowired private EntityManagerFactory entityManagerFactory;
+
+  private Cache cache;
+
+  @BeforeEach
+  void setUpCache() {
+    cache = entityManagerFactory.getCache();
+  }
+
+  @Test
+  void shouldServeRepeatedReadsByIdAndIsbnFromCache() {
+    Book book = saveUncachedBook("978-0321125217");
+
+    bookService.getBookById(book.getId());
+
+    assertThat(cache.contains(Book.class, book.getId())).isTrue();
+    assertThat(bookRepository.findByIsbn("978-0321125217")).map(Book::getId).hasValue(book.getId());
+  }
+
+  @Test
+  void shouldEvictBookWhenUpdatedThroughService() {
+    Book book = saveUncachedBook("978-0321146533");
+    bookService.getBookById(book.getId());
+
+    bookService.updateBook(
+        book.getId(),
+        new BookUpdateRequest(
+            "Test Driven Development", "Kent Beck", LocalDate.of(2002, 11, 8), BookStatus.BORROWED),
+        null);
+
+    assertThat(cache.contains(Book.class, book.getId())).isFalse();
+    assertThat(bookService.getBookById(book.getId()))
+        .map(Book::getTitle)
+        .hasValue("Test Driven Development");
+    assertThat(bookRepository.findByIsbn("978-0321146533"))
+        .map(Book::getTitle)
+        .hasValue("Test Driven Development");
+  }
+
+  @Test
+  void shouldEvictBookWhenDeletedThroughService() {
+    Book book = saveUncachedBook("978-0137081073");
+    bookService.getBookById(book.getId());
+    bookRepository.findByIsbn("978-0137081073");
+
+    bookService.deleteBook(book.getId());
+
+    assertThat(cache.contains(Book.class, book.getId())).isFalse();
+    assertThat(bookService.getBookById(book.getId())).isEmpty();
+    assertThat(bookRepository.findByIsbn("978-0137081073")).isEmpty();
+  }
+
+  @Test
+  void shouldKeepCachedBooksWhenMetadataCacheIsWritten() {
+    Book book = saveUncachedBook("978-1617294945");
+    bookService.getBookById(book.getId());
+
+    metadataCacheRepository.store("978-1617294945", null, Instant.now());
+
+    assertThat(cache.contains(Book.class, book.getId())).isTrue();
+  }
+
+  @Test
+  void shouldKeepCachedBooksWhenEnrichmentJobsFail() {
+    Book book = saveUncachedBook("978-0135957059");
+    bookService.getBookById(book.getId());
+
+    jobRepository.retryLater(-1L, 1, "IOException: connection reset");
+    jobRepository.deadLetter(-1L, "IOException: connection reset");
+
+    assertThat(cache.contains(Book.class, book.getId())).isTrue();
+  }
+
+  @Test
+  void shouldNotCacheBooksWhenExported() {
+    Book book = saveUncachedBook("978-0134757599");
+
+    bookExportService.exportBooks(exported -> {});
+
+    assertThat(cache.contains(Book.class, book.getId())).isFalse();
+  }
+
+  private Book saveUncachedBook(String isbn) {
+    Book book = bookRepository.save(new Book(isbn, "Draft", "Unknown", LocalDate.of(2000, 1, 1)));
+    cache.evict(Book.class, book.getId());
+    return book;
+  }
+}
@@ -1,5 +1,7 @@
 package de.rieckpil.blog.examples.chapter3;
 
+import java.time.Duration;
+
 import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import de.rieckpil.blog.Book;
@@ -29,6 +31,7 @@ import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
 
 @ActiveProfiles("other-test-profile") // show difference in Spring Test Profiler
 @AutoConfigureTestRestTemplate
@@ -104,17 +107,25 @@ class BookshelfShelfieApplicationIT {
     String location = createResponse.getHeaders().getLocation().toString();
     String bookId = location.substring(location.lastIndexOf('/') + 1);
 
-    ResponseEntity<Book> getResponse =
-        restTemplate.withBasicAuth("user", "user").getForEntity("/api/books/" + bookId, Book.class);
-
-    assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
-    Book book = getResponse.getBody();
-    assertThat(book).isNotNull();
-
-    assertThat(book.getIsbn()).isEqualTo("978-0132350884");
-    assertThat(book.getTitle()).isEqualTo("Clean Code");
-    assertThat(book.getAuthor()).isEqualTo("Robert C. Martin");
-    assertThat(book.getThumbnailUrl())
-        .contains("https://covers.openlibrary.org/b/id/14840846-M.jpg");
+    // the thumbnail is filled in from OpenLibrary after the create returned
+    await()
+        .atMost(Duration.ofSeconds(5))
+        .untilAsserted(
+            () -> {
+              ResponseEntity<Book> getResponse =
+                  restTemplate
+                      .withBasicAuth("user", "user")
+                      .getForEntity("/api/books/" + bookId, Book.class);
+
+              assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+              Book book = getResponse.getBody();
+              assertThat(book).isNotNull();
+
+              assertThat(book.getIsbn()).isEqualTo("978-0132350884");
+              assertThat(book.getTitle()).isEqualTo("Clean Code");
+              assertThat(book.getAuthor()).isEqualTo("Robert C. Martin");
+              assertThat(book.getThumbnailUrl())
+                  .contains("https://covers.openlibrary.org/b/id/14840846-M.jpg");
+            });
   }
 }
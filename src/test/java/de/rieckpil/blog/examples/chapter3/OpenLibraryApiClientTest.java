@@ -1,22 +1,65 @@
 package de.rieckpil.blog.examples.chapter3;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.github.tomakehurst.wiremock.stubbing.ServeEvent;
+import de.rieckpil.blog.AuthorMetadataResponse;
+import de.rieckpil.blog.BookMetadataCache;
+import de.rieckpil.blog.BookMetadataCacheEntry;
+import de.rieckpil.blog.BookMetadataCacheRepository;
 import de.rieckpil.blog.BookMetadataResponse;
 import de.rieckpil.blog.OpenLibraryApiClient;
+import de.rieckpil.blog.OpenLibraryResilience;
+import de.rieckpil.blog.OpenLibraryResponseDecoder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.netty.http.client.HttpClient;
+import tools.jackson.databind.json.JsonMapper;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.AdditionalMatchers.not;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 class OpenLibraryApiClientTest {
 
@@ -24,13 +67,18 @@ class OpenLibraryApiClientTest {
   static WireMockExtension wireMockServer =
       WireMockExtension.newInstance().options(wireMockConfig().dynamicPort()).build();
 
+  private static final Duration NOT_FOUND_TTL = Duration.ofMillis(500);
+
+  private static final String CLEAN_CODE_ISBN = "978-0132350884";
+
+  private BookMetadataCacheRepository metadataCacheRepository;
+
   private OpenLibraryApiClient cut;
 
   @BeforeEach
   void setUp() {
-    WebClient webClient = WebClient.builder().baseUrl(wireMockServer.baseUrl()).build();
-
-    cut = new OpenLibraryApiClient(webClient);
+    metadataCacheRepository = mock(BookMetadataCacheRepository.class);
+    cut = client(WebClient.builder().baseUrl(wireMockServer.baseUrl()).build());
   }
 
   @Test
@@ -98,4 +146,435 @@ class OpenLibraryApiClientTest {
 
     assertThat(exception.getStatusCode().value()).isEqualTo(404);
   }
+
+  @Test
+  @DisplayName("Should answer repeated lookups from memory and store only the selected fields")
+  void shouldAnswerRepeatedLookupsFromMemoryAndStoreSelectedFields() {
+    String isbn = "978-0132350884";
+    wireMockServer.stubFor(
+        get("/isbn/" + isbn)
+            .willReturn(
+                aResponse()
+                    .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .withBodyFile(isbn + "-success.json")));
+
+    cut.getBookByIsbn(isbn);
+    BookMetadataResponse result = cut.getBookByIsbn(isbn);
+
+    assertThat(result.title()).isEqualTo("Clean Code");
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/" + isbn)));
+    verify(metadataCacheRepository).store(eq(isbn), contains("\"Clean Code\""), any());
+    verify(metadataCacheRepository).store(eq(isbn), not(contains("table_of_contents")), any());
+  }
+
+  @Test
+  @DisplayName("Should answer from the database without calling the API")
+  void shouldAnswerFromDatabaseWithoutCallingApi() {
+    String isbn = "978-0201485677";
+    when(metadataCacheRepository.findByIsbnAndExpiresAtAfter(eq(isbn), any()))
+        .thenReturn(
+            Optional.of(
+                new BookMetadataCacheEntry(
+                    isbn, "{\"title\": \"Refactoring\"}", Instant.now().plusSeconds(60))));
+
+    BookMetadataResponse result = cut.getBookByIsbn(isbn);
+
+    assertThat(result.title()).isEqualTo("Refactoring");
+    wireMockServer.verify(0, getRequestedFor(urlEqualTo("/isbn/" + isbn)));
+  }
+
+  @Test
+  @DisplayName("Should remember an unknown ISBN for the shorter not found TTL")
+  void shouldRememberUnknownIsbnForNotFoundTtl() {
+    String isbn = "9999999999";
+    wireMockServer.stubFor(get("/isbn/" + isbn).willReturn(aResponse().withStatus(404)));
+
+    assertThrows(WebClientResponseException.NotFound.class, () -> cut.getBookByIsbn(isbn));
+    assertThrows(WebClientResponseException.NotFound.class, () -> cut.getBookByIsbn(isbn));
+
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/" + isbn)));
+    verify(metadataCacheRepository).store(eq(isbn), isNull(), any());
+
+    await()
+        .atMost(NOT_FOUND_TTL.multipliedBy(10))
+        .untilAsserted(
+            () -> {
+              assertThrows(
+                  WebClientResponseException.NotFound.class, () -> cut.getBookByIsbn(isbn));
+              wireMockServer.verify(2, getRequestedFor(urlEqualTo("/isbn/" + isbn)));
+            });
+  }
+
+  @Test
+  @DisplayName("Should not cache server errors")
+  void shouldNotCacheServerErrors() {
+    String isbn = "9999999999";
+    wireMockServer.stubFor(get("/isbn/" + isbn).willReturn(aResponse().withStatus(503)));
+
+    assertThrows(WebClientResponseException.class, () -> cut.getBookByIsbn(isbn));
+    assertThrows(WebClientResponseException.class, () -> cut.getBookByIsbn(isbn));
+
+    wireMockServer.verify(2, getRequestedFor(urlEqualTo("/isbn/" + isbn)));
+  }
+
+  @Test
+  @DisplayName("Should send one request for concurrent lookups of the same ISBN")
+  void shouldSendOneRequestForConcurrentLookupsOfSameIsbn() {
+    stubCleanCode(300);
+
+    List<Future<BookMetadataResponse>> lookups = lookUpConcurrently(cut, CLEAN_CODE_ISBN, 20);
+
+    assertThat(lookups)
+        .extracting(lookup -> lookup.resultNow().title())
+        .containsOnly("Clean Code")
+        .hasSize(20);
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/" + CLEAN_CODE_ISBN)));
+  }
+
+  @Test
+  @DisplayName("Should hand the error to every concurrent lookup and start over afterwards")
+  void shouldHandErrorToEveryConcurrentLookupAndStartOverAfterwards() {
+    String isbn = "9999999999";
+    wireMockServer.stubFor(
+        get("/isbn/" + isbn).willReturn(aResponse().withStatus(503).withFixedDelay(300)));
+
+    List<Future<BookMetadataResponse>> lookups = lookUpConcurrently(cut, isbn, 20);
+
+    assertThat(lookups)
+        .extracting(Future::exceptionNow)
+        .allSatisfy(
+            error ->
+                assertThat(error)
+                    .isInstanceOfSatisfying(
+                        WebClientResponseException.class,
+                        e -> assertThat(e.getStatusCode().value()).isEqualTo(503)));
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/" + isbn)));
+
+    assertThrows(WebClientResponseException.class, () -> cut.getBookByIsbn(isbn));
+    wireMockServer.verify(2, getRequestedFor(urlEqualTo("/isbn/" + isbn)));
+  }
+
+  @Test
+  @DisplayName("Should drop a lookup that timed out")
+  void shouldDropLookupThatTimedOut() {
+    HttpClient httpClient = HttpClient.create().responseTimeout(Duration.ofMillis(200));
+    OpenLibraryApiClient impatientClient =
+        client(
+            WebClient.builder()
+                .baseUrl(wireMockServer.baseUrl())
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build());
+    stubCleanCode(1000);
+
+    assertThat(lookUpConcurrently(impatientClient, CLEAN_CODE_ISBN, 10))
+        .extracting(Future::exceptionNow)
+        .allSatisfy(error -> assertThat(error).isInstanceOf(WebClientRequestException.class));
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/" + CLEAN_CODE_ISBN)));
+
+    stubCleanCode(0);
+
+    assertThat(impatientClient.getBookByIsbn(CLEAN_CODE_ISBN).title()).isEqualTo("Clean Code");
+    wireMockServer.verify(2, getRequestedFor(urlEqualTo("/isbn/" + CLEAN_CODE_ISBN)));
+  }
+
+  @Test
+  @DisplayName("Should let a waiting lookup take over when the running one is interrupted")
+  void shouldLetWaitingLookupTakeOverWhenRunningOneIsInterrupted() throws Exception {
+    stubCleanCode(500);
+
+    FutureTask<BookMetadataResponse> running =
+        new FutureTask<>(() -> cut.getBookByIsbn(CLEAN_CODE_ISBN));
+    Thread runningThread = Thread.ofPlatform().start(running);
+    await()
+        .untilAsserted(
+            () ->
+                wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/" + CLEAN_CODE_ISBN))));
+
+    FutureTask<BookMetadataResponse> waiting =
+        new FutureTask<>(() -> cut.getBookByIsbn(CLEAN_CODE_ISBN));
+    Thread waitingThread = Thread.ofPlatform().start(waiting);
+    await().until(() -> waitingThread.getState() == Thread.State.WAITING);
+
+    runningThread.interrupt();
+
+    assertThat(waiting.get().title()).isEqualTo("Clean Code");
+    assertThat(running.exceptionNow()).isNotNull();
+    wireMockServer.verify(2, getRequestedFor(urlEqualTo("/isbn/" + CLEAN_CODE_ISBN)));
+  }
+
+  @Test
+  @DisplayName("Should look up ISBNs in chunks with the bibkeys API")
+  void shouldLookUpIsbnsInChunksWithBibkeysApi() {
+    OpenLibraryApiClient batchClient =
+        client(WebClient.builder().baseUrl(wireMockServer.baseUrl()).build(), 2, 2);
+    stubBibkeys("ISBN:111,ISBN:222", 0, "111", "222");
+    stubBibkeys("ISBN:333,ISBN:404", 0, "333");
+    stubBibkeys("ISBN:555", 0, "555");
+
+    Map<String, BookMetadataResponse> books =
+        batchClient.getBooksByIsbns(List.of("111", "222", "333", "404", "222", "555"));
+
+    assertThat(books).containsOnlyKeys("111", "222", "333", "555");
+    assertThat(books.get("333").title()).isEqualTo("Book 333");
+    assertThat(books.get("333").getCoverUrl())
+        .isEqualTo("https://covers.openlibrary.org/b/id/333-M.jpg");
+    wireMockServer.verify(3, getRequestedFor(urlPathEqualTo("/api/books")));
+  }
+
+  @Test
+  @DisplayName("Should answer batch lookups from the cache and fill it with the responses")
+  void shouldAnswerBatchLookupsFromCacheAndFillIt() {
+    stubBibkeys("ISBN:111,ISBN:404", 0, "111");
+    stubBibkeys("ISBN:222", 0, "222");
+
+    cut.getBooksByIsbns(List.of("111", "404"));
+    Map<String, BookMetadataResponse> books = cut.getBooksByIsbns(List.of("111", "222", "404"));
+
+    assertThat(books).containsOnlyKeys("111", "222");
+    assertThat(cut.getBookByIsbn("111").title()).isEqualTo("Book 111");
+    assertThrows(WebClientResponseException.NotFound.class, () -> cut.getBookByIsbn("404"));
+    wireMockServer.verify(2, getRequestedFor(urlPathEqualTo("/api/books")));
+    wireMockServer.verify(0, getRequestedFor(urlPathEqualTo("/isbn/111")));
+    verify(metadataCacheRepository).store(eq("111"), contains("\"Book 111\""), any());
+    verify(metadataCacheRepository).store(eq("404"), isNull(), any());
+  }
+
+  @Test
+  @DisplayName("Should run at most the configured number of chunk requests at a time")
+  void shouldRunAtMostConfiguredNumberOfChunkRequestsAtATime() {
+    OpenLibraryApiClient batchClient =
+        client(WebClient.builder().baseUrl(wireMockServer.baseUrl()).build(), 1, 2);
+    List<String> isbns = List.of("1", "2", "3", "4", "5", "6");
+    isbns.forEach(isbn -> stubBibkeys("ISBN:" + isbn, 300, isbn));
+
+    Map<String, BookMetadataResponse> books = batchClient.getBooksByIsbns(isbns);
+
+    assertThat(books).hasSize(6);
+    assertThat(peakConcurrentRequests()).isEqualTo(2);
+  }
+
+  @Test
+  @DisplayName("Should fail the batch lookup when a chunk request fails")
+  void shouldFailBatchLookupWhenChunkRequestFails() {
+    OpenLibraryApiClient batchClient =
+        client(WebClient.builder().baseUrl(wireMockServer.baseUrl()).build(), 1, 2);
+    stubBibkeys("ISBN:1", 0, "1");
+    wireMockServer.stubFor(
+        get(urlPathEqualTo("/api/books"))
+            .withQueryParam("bibkeys", equalTo("ISBN:2"))
+            .willReturn(aResponse().withStatus(503)));
+
+    WebClientResponseException exception =
+        assertThrows(
+            WebClientResponseException.class, () -> batchClient.getBooksByIsbns(List.of("1", "2")));
+
+    assertThat(exception.getStatusCode().value()).isEqualTo(503);
+  }
+
+  @Test
+  @DisplayName("Should resolve an edition's authors concurrently and keep them for later editions")
+  void shouldResolveAuthorsConcurrentlyAndKeepThem() {
+    stubAuthor("OL1A", "Robert C. Martin", 300);
+    stubAuthor("OL2A", "Michael C. Feathers", 300);
+    stubAuthor("OL3A", "Martin Fowler", 300);
+
+    List<AuthorMetadataResponse> authors = cut.getAuthors(edition("OL1A", "OL2A", "OL1A", "OL3A"));
+    cut.getAuthors(edition("OL3A", "OL1A"));
+
+    assertThat(authors)
+        .extracting(AuthorMetadataResponse::name)
+        .containsExactly("Robert C. Martin", "Michael C. Feathers", "Martin Fowler");
+    assertThat(peakConcurrentRequests()).isEqualTo(3);
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/authors/OL1A.json")));
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/authors/OL3A.json")));
+  }
+
+  @Test
+  @DisplayName("Should send one request for concurrent lookups of the same author")
+  void shouldSendOneRequestForConcurrentLookupsOfSameAuthor() throws Exception {
+    stubAuthor("OL1A", "Robert C. Martin", 300);
+    BookMetadataResponse edition = edition("OL1A");
+
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<List<AuthorMetadataResponse>>> lookups =
+          IntStream.range(0, 20)
+              .mapToObj(i -> executor.submit(() -> cut.getAuthors(edition)))
+              .toList();
+      for (Future<List<AuthorMetadataResponse>> lookup : lookups) {
+        assertThat(lookup.get())
+            .extracting(AuthorMetadataResponse::name)
+            .containsExactly("Robert C. Martin");
+      }
+    }
+
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/authors/OL1A.json")));
+  }
+
+  @Test
+  @DisplayName("Should leave out unknown authors and not keep failed author lookups")
+  void shouldLeaveOutUnknownAuthorsAndNotKeepFailedLookups() {
+    stubAuthor("OL1A", "Robert C. Martin", 0);
+    wireMockServer.stubFor(get("/authors/OL404A.json").willReturn(aResponse().withStatus(404)));
+    wireMockServer.stubFor(get("/authors/OL503A.json").willReturn(aResponse().withStatus(503)));
+
+    assertThat(cut.getAuthors(edition("OL404A", "OL1A")))
+        .extracting(AuthorMetadataResponse::name)
+        .containsExactly("Robert C. Martin");
+    assertThrows(WebClientResponseException.class, () -> cut.getAuthors(edition("OL503A")));
+    assertThrows(WebClientResponseException.class, () -> cut.getAuthors(edition("OL503A")));
+
+    wireMockServer.verify(2, getRequestedFor(urlEqualTo("/authors/OL503A.json")));
+  }
+
+  private OpenLibraryApiClient client(WebClient webClient) {
+    return client(webClient, 50, 4);
+  }
+
+  private OpenLibraryApiClient client(
+      WebClient webClient, int batchChunkSize, int batchConcurrency) {
+    BookMetadataCache metadataCache =
+        new BookMetadataCache(
+            metadataCacheRepository,
+            new SimpleMeterRegistry(),
+            100,
+            Duration.ofHours(1),
+            NOT_FOUND_TTL);
+    JsonMapper jsonMapper = JsonMapper.builder().build();
+    return new OpenLibraryApiClient(
+        webClient,
+        metadataCache,
+        jsonMapper,
+        new OpenLibraryResponseDecoder(
+            jsonMapper,
+            Set.of(
+                "key",
+                "title",
+                "isbn_13",
+                "isbn_10",
+                "publish_date",
+                "publishers",
+                "authors",
+                "number_of_pages",
+                "physical_format",
+                "description",
+                "subjects",
+                "covers"),
+            20,
+            DataSize.ofKilobytes(256)),
+        new OpenLibraryResilience(
+            new SimpleMeterRegistry(),
+            50,
+            20,
+            10,
+            Duration.ofSeconds(30),
+            16,
+            Duration.ofMillis(500),
+            false,
+            Duration.ofMillis(50),
+            10),
+        batchChunkSize,
+        batchConcurrency,
+        100,
+        Duration.ofHours(1));
+  }
+
+  private static void stubCleanCode(int delayMillis) {
+    wireMockServer.stubFor(
+        get("/isbn/" + CLEAN_CODE_ISBN)
+            .willReturn(
+                aResponse()
+                    .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .withBodyFile(CLEAN_CODE_ISBN + "-success.json")
+                    .withFixedDelay(delayMillis)));
+  }
+
+  /**
+   * The most requests WireMock was serving at the same time, from the start and duration of each.
+   */
+  private static int peakConcurrentRequests() {
+    List<long[]> changes = new ArrayList<>();
+    for (ServeEvent event : wireMockServer.getAllServeEvents()) {
+      long received = event.getRequest().getLoggedDate().getTime();
+      changes.add(new long[] {received, 1});
+      changes.add(new long[] {received + event.getTiming().getTotalTime(), -1});
+    }
+    // at the same instant, count requests that finished before those that started
+    changes.sort(
+        Comparator.<long[]>comparingLong(change -> change[0]).thenComparingLong(c -> c[1]));
+
+    int inFlight = 0;
+    int peak = 0;
+    for (long[] change : changes) {
+      inFlight += (int) change[1];
+      peak = Math.max(peak, inFlight);
+    }
+    return peak;
+  }
+
+  private static void stubAuthor(String id, String name, int delayMillis) {
+    wireMockServer.stubFor(
+        get("/authors/" + id + ".json")
+            .willReturn(
+                aResponse()
+                    .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .withBody(
+                        """
+                        {"key": "/authors/%s", "name": "%s", "personal_name": "%s"}
+                        """
+                            .formatted(id, name, name))
+                    .withFixedDelay(delayMillis)));
+  }
+
+  private static BookMetadataResponse edition(String... authorIds) {
+    String authors =
+        Stream.of(authorIds)
+            .map(id -> "{\"key\": \"/authors/%s\"}".formatted(id))
+            .collect(Collectors.joining(","));
+    return JsonMapper.builder()
+        .build()
+        .readValue("{\"authors\": [" + authors + "]}", BookMetadataResponse.class);
+  }
+
+  /** Answers the bibkeys request with an edition for each of the known ISBNs. */
+  private static void stubBibkeys(String bibkeys, int delayMillis, String... knownIsbns) {
+    String body =
+        Stream.of(knownIsbns)
+            .map(
+                isbn ->
+                    """
+                    "ISBN:%s": {"bib_key": "ISBN:%s", "details": {"title": "Book %s", "covers": [%s]}}
+                    """
+                        .formatted(isbn, isbn, isbn, isbn))
+            .collect(Collectors.joining(",", "{", "}"));
+    wireMockServer.stubFor(
+        get(urlPathEqualTo("/api/books"))
+            .withQueryParam("bibkeys", equalTo(bibkeys))
+            .withQueryParam("jscmd", equalTo("details"))
+            .withQueryParam("format", equalTo("json"))
+            .willReturn(
+                aResponse()
+                    .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .withBody(body)
+                    .withFixedDelay(delayMillis)));
+  }
+
+  /** Starts all lookups at once and returns them once they completed. */
+  private static List<Future<BookMetadataResponse>> lookUpConcurrently(
+      OpenLibraryApiClient client, String isbn, int callers) {
+    CountDownLatch start = new CountDownLatch(1);
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<BookMetadataResponse>> lookups =
+          IntStream.range(0, callers)
+              .mapToObj(
+                  i ->
+                      executor.submit(
+                          () -> {
+                            start.await();
+                            return client.getBookByIsbn(isbn);
+                          }))
+              .toList();
+      start.countDown();
+      return lookups;
+    }
+  }
 }
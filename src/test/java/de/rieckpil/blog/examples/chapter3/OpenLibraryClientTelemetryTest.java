@@ -0,0 +1,132 @@
+package de.rieckpil.blog.examples.chapter3;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import de.rieckpil.blog.OpenLibraryClientTelemetry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.boot.test.system.CapturedOutput;
+import org.springframework.boot.test.system.OutputCaptureExtension;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@ExtendWith(OutputCaptureExtension.class)
+class OpenLibraryClientTelemetryTest {
+
+  @RegisterExtension
+  static WireMockExtension wireMockServer =
+      WireMockExtension.newInstance().options(wireMockConfig().dynamicPort()).build();
+
+  private SimpleMeterRegistry meterRegistry;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @Test
+  @DisplayName("Should record latency and body size by URI template")
+  void shouldRecordLatencyAndBodySizeByUriTemplate() {
+    String body = "{\"title\": \"Clean Code\"}";
+    wireMockServer.stubFor(
+        get("/isbn/978-0132350884").willReturn(aResponse().withBody(body).withFixedDelay(100)));
+    WebClient webClient = webClient(new OpenLibraryClientTelemetry(meterRegistry, 0));
+
+    webClient
+        .get()
+        .uri("/isbn/{isbn}", "978-0132350884")
+        .retrieve()
+        .bodyToMono(String.class)
+        .block();
+
+    Timer requests =
+        meterRegistry
+            .get("book.metadata.http.requests")
+            .tags("method", "GET", "uri", "/isbn/{isbn}", "status", "200")
+            .timer();
+    assertThat(requests.count()).isEqualTo(1);
+    assertThat(requests.max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(100);
+    assertThat(
+            meterRegistry
+                .get("book.metadata.http.response.size")
+                .tags("uri", "/isbn/{isbn}", "status", "200")
+                .summary()
+                .totalAmount())
+        .isEqualTo(body.length());
+  }
+
+  @Test
+  @DisplayName("Should record error responses and requests that got no response")
+  void shouldRecordErrorResponsesAndFailedRequests() {
+    wireMockServer.stubFor(get("/isbn/404").willReturn(aResponse().withStatus(404)));
+    OpenLibraryClientTelemetry telemetry = new OpenLibraryClientTelemetry(meterRegistry, 0);
+
+    assertThrows(
+        WebClientResponseException.NotFound.class,
+        () ->
+            webClient(telemetry)
+                .get()
+                .uri("/isbn/{isbn}", "404")
+                .retrieve()
+                .bodyToMono(String.class)
+                .block());
+    assertThrows(
+        WebClientRequestException.class,
+        () ->
+            WebClient.builder()
+                .baseUrl("http://localhost:1")
+                .filter(telemetry)
+                .build()
+                .get()
+                .uri("/isbn/{isbn}", "1")
+                .retrieve()
+                .bodyToMono(String.class)
+                .block());
+
+    assertThat(
+            meterRegistry.get("book.metadata.http.requests").tag("status", "404").timer().count())
+        .isEqualTo(1);
+    assertThat(
+            meterRegistry
+                .get("book.metadata.http.requests")
+                .tag("status", "IO_ERROR")
+                .timer()
+                .count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  @DisplayName("Should log the sampled share of the exchanges and adjust it at runtime")
+  void shouldLogSampledShareOfExchanges(CapturedOutput output) {
+    wireMockServer.stubFor(get("/isbn/978-0201633610").willReturn(aResponse().withBody("{}")));
+    OpenLibraryClientTelemetry telemetry = new OpenLibraryClientTelemetry(meterRegistry, 0);
+    WebClient webClient = webClient(telemetry);
+    String logLine = "GET " + wireMockServer.baseUrl() + "/isbn/978-0201633610 -> 200";
+
+    webClient.get().uri("/isbn/{isbn}", "978-0201633610").retrieve().toBodilessEntity().block();
+    assertThat(output.getOut()).doesNotContain(logLine);
+
+    telemetry.setLogSampleRate(1);
+    webClient.get().uri("/isbn/{isbn}", "978-0201633610").retrieve().toBodilessEntity().block();
+
+    assertThat(output.getOut()).contains(logLine);
+    assertThrows(IllegalArgumentException.class, () -> telemetry.setLogSampleRate(1.5));
+  }
+
+  private WebClient webClient(OpenLibraryClientTelemetry telemetry) {
+    return WebClient.builder().baseUrl(wireMockServer.baseUrl()).filter(telemetry).build();
+  }
+}
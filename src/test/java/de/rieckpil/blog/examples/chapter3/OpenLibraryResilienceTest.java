@@ -0,0 +1,255 @@
+package de.rieckpil.blog.examples.chapter3;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import de.rieckpil.blog.OpenLibraryResilience;
+import de.rieckpil.blog.OpenLibraryUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OpenLibraryResilienceTest {
+
+  @RegisterExtension
+  static WireMockExtension wireMockServer =
+      WireMockExtension.newInstance().options(wireMockConfig().dynamicPort()).build();
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private WebClient webClient;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    webClient = WebClient.builder().baseUrl(wireMockServer.baseUrl()).build();
+  }
+
+  @Test
+  @DisplayName("Should fail fast while the circuit is open and close it after a successful trial")
+  void shouldFailFastWhileCircuitIsOpen() {
+    OpenLibraryResilience cut = resilience(16, Duration.ofMillis(300), false);
+    wireMockServer.stubFor(get("/isbn/1").willReturn(aResponse().withStatus(503)));
+
+    // window of 4 calls, half of them failing opens the circuit
+    for (int i = 0; i < 4; i++) {
+      assertThrows(WebClientResponseException.class, () -> fetch(cut, "/isbn/1"));
+    }
+    assertThrows(OpenLibraryUnavailableException.class, () -> fetch(cut, "/isbn/1"));
+
+    wireMockServer.verify(4, getRequestedFor(urlEqualTo("/isbn/1")));
+    assertThat(circuitState("open")).isEqualTo(1);
+    assertThat(calls("circuit_open")).isEqualTo(1);
+    assertThat(requests("error")).isEqualTo(4);
+
+    wireMockServer.stubFor(get("/isbn/1").willReturn(aResponse().withBody("{}")));
+
+    await()
+        .ignoreExceptions()
+        .untilAsserted(() -> assertThat(fetch(cut, "/isbn/1")).isEqualTo("{}"));
+    assertThat(circuitState("closed")).isEqualTo(1);
+    wireMockServer.verify(5, getRequestedFor(urlEqualTo("/isbn/1")));
+  }
+
+  @Test
+  @DisplayName("Should not count unknown ISBNs as failures")
+  void shouldNotCountUnknownIsbnsAsFailures() {
+    OpenLibraryResilience cut = resilience(16, Duration.ofSeconds(30), false);
+    wireMockServer.stubFor(get("/isbn/404").willReturn(aResponse().withStatus(404)));
+
+    for (int i = 0; i < 10; i++) {
+      assertThrows(WebClientResponseException.NotFound.class, () -> fetch(cut, "/isbn/404"));
+    }
+
+    assertThat(circuitState("closed")).isEqualTo(1);
+    assertThat(calls("success")).isEqualTo(10);
+    wireMockServer.verify(10, getRequestedFor(urlEqualTo("/isbn/404")));
+  }
+
+  @Test
+  @DisplayName("Should reject calls that find the bulkhead full")
+  void shouldRejectCallsThatFindBulkheadFull() {
+    OpenLibraryResilience cut = resilience(2, Duration.ofSeconds(30), false);
+    wireMockServer.stubFor(
+        get("/isbn/2").willReturn(aResponse().withBody("{}").withFixedDelay(1000)));
+
+    List<Future<String>> calls = fetchConcurrently(cut, "/isbn/2", 4);
+
+    assertThat(calls).filteredOn(call -> call.state() == Future.State.SUCCESS).hasSize(2);
+    assertThat(calls)
+        .filteredOn(call -> call.state() == Future.State.FAILED)
+        .extracting(Future::exceptionNow)
+        .hasSize(2)
+        .allSatisfy(error -> assertThat(error).isInstanceOf(OpenLibraryUnavailableException.class));
+    assertThat(calls("bulkhead_full")).isEqualTo(2);
+    wireMockServer.verify(2, getRequestedFor(urlEqualTo("/isbn/2")));
+  }
+
+  @Test
+  @DisplayName("Should hedge a request that takes longer than the recent 95th percentile")
+  void shouldHedgeRequestSlowerThanRecentPercentile() {
+    OpenLibraryResilience cut = resilience(16, Duration.ofSeconds(30), true);
+    wireMockServer.stubFor(
+        get("/isbn/fast").willReturn(aResponse().withBody("{}").withFixedDelay(10)));
+    for (int i = 0; i < 20; i++) {
+      fetch(cut, "/isbn/fast");
+    }
+
+    wireMockServer.stubFor(
+        get("/isbn/3")
+            .inScenario("slow first request")
+            .whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(aResponse().withBody("{\"attempt\": 1}").withFixedDelay(3000))
+            .willSetStateTo("second request"));
+    wireMockServer.stubFor(
+        get("/isbn/3")
+            .inScenario("slow first request")
+            .whenScenarioStateIs("second request")
+            .willReturn(aResponse().withBody("{\"attempt\": 2}")));
+
+    long start = System.nanoTime();
+    String result = fetch(cut, "/isbn/3");
+
+    assertThat(result).isEqualTo("{\"attempt\": 2}");
+    assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+    assertThat(meterRegistry.get("book.metadata.hedges").tag("outcome", "sent").counter().count())
+        .isEqualTo(1);
+    assertThat(meterRegistry.get("book.metadata.hedges").tag("outcome", "won").counter().count())
+        .isEqualTo(1);
+    assertThat(requests("cancelled")).isEqualTo(1);
+    wireMockServer.verify(2, getRequestedFor(urlEqualTo("/isbn/3")));
+  }
+
+  @Test
+  @DisplayName("Should not hedge more requests than the budget allows")
+  void shouldNotHedgeBeyondBudget() {
+    // at 5%, the 20 warm-up calls earn a single hedge
+    OpenLibraryResilience cut = resilience(16, Duration.ofSeconds(30), true, 5);
+    warmUpHedging(cut);
+    stubSlowFirstRequest("/isbn/4");
+    stubSlowFirstRequest("/isbn/5");
+
+    assertThat(fetch(cut, "/isbn/4")).isEqualTo("{\"attempt\": 2}");
+    assertThat(fetch(cut, "/isbn/5")).isEqualTo("{\"attempt\": 1}");
+
+    assertThat(hedges("sent")).isEqualTo(1);
+    assertThat(hedges("skipped")).isEqualTo(1);
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/5")));
+  }
+
+  @Test
+  @DisplayName("Should not hedge a request when the bulkhead has no free slot")
+  void shouldNotHedgeWithoutFreeBulkheadSlot() {
+    OpenLibraryResilience cut = resilience(1, Duration.ofSeconds(30), true, 100);
+    warmUpHedging(cut);
+    stubSlowFirstRequest("/isbn/6");
+
+    assertThat(fetch(cut, "/isbn/6")).isEqualTo("{\"attempt\": 1}");
+
+    assertThat(hedges("sent")).isZero();
+    assertThat(hedges("skipped")).isEqualTo(1);
+    wireMockServer.verify(1, getRequestedFor(urlEqualTo("/isbn/6")));
+  }
+
+  private void warmUpHedging(OpenLibraryResilience cut) {
+    wireMockServer.stubFor(
+        get("/isbn/fast").willReturn(aResponse().withBody("{}").withFixedDelay(10)));
+    for (int i = 0; i < 20; i++) {
+      fetch(cut, "/isbn/fast");
+    }
+  }
+
+  private void stubSlowFirstRequest(String path) {
+    wireMockServer.stubFor(
+        get(path)
+            .inScenario(path)
+            .whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(aResponse().withBody("{\"attempt\": 1}").withFixedDelay(1000))
+            .willSetStateTo("second request"));
+    wireMockServer.stubFor(
+        get(path)
+            .inScenario(path)
+            .whenScenarioStateIs("second request")
+            .willReturn(aResponse().withBody("{\"attempt\": 2}")));
+  }
+
+  private long requests(String outcome) {
+    return meterRegistry.get("book.metadata.requests").tag("outcome", outcome).timer().count();
+  }
+
+  private double hedges(String outcome) {
+    return meterRegistry.get("book.metadata.hedges").tag("outcome", outcome).counter().count();
+  }
+
+  private OpenLibraryResilience resilience(
+      int maxConcurrentCalls, Duration openDuration, boolean hedging) {
+    return resilience(maxConcurrentCalls, openDuration, hedging, 10);
+  }
+
+  private OpenLibraryResilience resilience(
+      int maxConcurrentCalls, Duration openDuration, boolean hedging, int hedgingBudgetPercent) {
+    return new OpenLibraryResilience(
+        meterRegistry,
+        50,
+        4,
+        4,
+        openDuration,
+        maxConcurrentCalls,
+        Duration.ofMillis(100),
+        hedging,
+        Duration.ofMillis(50),
+        hedgingBudgetPercent);
+  }
+
+  private String fetch(OpenLibraryResilience cut, String path) {
+    return cut.call(webClient.get().uri(path).retrieve().bodyToMono(String.class));
+  }
+
+  private double circuitState(String state) {
+    return meterRegistry.get("book.metadata.circuit.state").tag("state", state).gauge().value();
+  }
+
+  private double calls(String outcome) {
+    return meterRegistry.get("book.metadata.calls").tag("outcome", outcome).counter().count();
+  }
+
+  /** Starts all calls at once and returns them once they completed. */
+  private List<Future<String>> fetchConcurrently(
+      OpenLibraryResilience cut, String path, int callers) {
+    CountDownLatch start = new CountDownLatch(1);
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<String>> calls =
+          IntStream.range(0, callers)
+              .mapToObj(
+                  i ->
+                      executor.submit(
+                          () -> {
+                            start.await();
+                            return fetch(cut, path);
+                          }))
+              .toList();
+      start.countDown();
+      return calls;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package de.rieckpil.blog.examples.chapter3;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import de.rieckpil.blog.OpenLibraryResponseDecoder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OpenLibraryResponseDecoderTest {
+
+  private final JsonMapper jsonMapper = JsonMapper.builder().build();
+
+  private final OpenLibraryResponseDecoder cut =
+      new OpenLibraryResponseDecoder(
+          jsonMapper,
+          Set.of("title", "publishers", "works", "subjects", "covers", "authors"),
+          3,
+          DataSize.ofKilobytes(256));
+
+  @Test
+  @DisplayName("Should keep only the selected fields of an edition split into arbitrary chunks")
+  void shouldKeepOnlySelectedFieldsAcrossChunks() throws IOException {
+    byte[] edition =
+        Files.readAllBytes(Path.of("src/test/resources/__files/978-0132350884-success.json"));
+
+    for (int chunkSize : new int[] {1, 7, 512, edition.length}) {
+      JsonNode selected =
+          jsonMapper.readTree(cut.decodeEdition(chunks(edition, chunkSize)).block());
+
+      assertThat(selected.propertyNames())
+          .containsExactly("title", "publishers", "covers", "works");
+      assertThat(selected.get("title").asString()).isEqualTo("Clean Code");
+      assertThat(selected.get("works").get(0).get("key").asString())
+          .isEqualTo("/works/OL17618370W");
+    }
+  }
+
+  @Test
+  @DisplayName("Should keep at most the configured number of elements per array")
+  void shouldTruncateArrays() {
+    String edition =
+        """
+        {"title": "Refactoring", "subjects": ["a", "b", "c", "d", "e"],
+         "covers": [[1, 2], {"id": 3}, 4, 5], "source_records": ["x", "y"]}
+        """;
+
+    JsonNode selected =
+        jsonMapper.readTree(
+            cut.decodeEdition(chunks(edition.getBytes(StandardCharsets.UTF_8), 5)).block());
+
+    assertThat(selected.get("subjects").toString()).isEqualTo("[\"a\",\"b\",\"c\"]");
+    assertThat(selected.get("covers").toString()).isEqualTo("[[1,2],{\"id\":3},4]");
+    assertThat(selected.has("source_records")).isFalse();
+  }
+
+  @Test
+  @DisplayName("Should keep every author, however many there are")
+  void shouldNotTruncateAuthors() {
+    String edition =
+        """
+        {"authors": [{"key": "/authors/A1"}, {"key": "/authors/A2"}, {"key": "/authors/A3"},
+                     {"key": "/authors/A4"}, {"key": "/authors/A5"}],
+         "subjects": ["a", "b", "c", "d"]}
+        """;
+
+    JsonNode selected =
+        jsonMapper.readTree(
+            cut.decodeEdition(chunks(edition.getBytes(StandardCharsets.UTF_8), 5)).block());
+
+    assertThat(selected.get("authors")).hasSize(5);
+    assertThat(selected.get("subjects")).hasSize(3);
+  }
+
+  @Test
+  @DisplayName("Should select the fields of each edition in a bibkeys response")
+  void shouldSelectFieldsOfEachBibkeysEdition() {
+    String bibkeys =
+        """
+        {"ISBN:978-0132350884": {"bib_key": "ISBN:978-0132350884", "preview": "noview",
+           "details": {"title": "Clean Code", "table_of_contents": [{"title": "Names"}]}},
+         "ISBN:978-0201633610": {"bib_key": "ISBN:978-0201633610",
+           "details": {"title": "Design Patterns", "pagination": "395"}}}
+        """;
+
+    JsonNode selected =
+        jsonMapper.readTree(
+            cut.decodeBibkeys(chunks(bibkeys.getBytes(StandardCharsets.UTF_8), 16)).block());
+
+    assertThat(selected.get("ISBN:978-0132350884").get("details").propertyNames())
+        .containsExactly("title");
+    assertThat(selected.get("ISBN:978-0132350884").get("preview").asString()).isEqualTo("noview");
+    assertThat(selected.get("ISBN:978-0201633610").get("details").get("title").asString())
+        .isEqualTo("Design Patterns");
+    assertThat(selected.get("ISBN:978-0201633610").get("details").has("pagination")).isFalse();
+  }
+
+  @Test
+  @DisplayName("Should fail when the selected fields exceed the in-memory limit")
+  void shouldFailWhenSelectedFieldsExceedLimit() {
+    OpenLibraryResponseDecoder small =
+        new OpenLibraryResponseDecoder(jsonMapper, Set.of("title"), 3, DataSize.ofBytes(64));
+    String longTitle = "{\"title\": \"" + "x".repeat(10_000) + "\", \"notes\": \"ignored\"}";
+
+    assertThrows(
+        DataBufferLimitException.class,
+        () -> small.decodeEdition(chunks(longTitle.getBytes(StandardCharsets.UTF_8), 256)).block());
+  }
+
+  @Test
+  @DisplayName("Should skip large unselected fields regardless of the in-memory limit")
+  void shouldSkipLargeUnselectedFields() {
+    OpenLibraryResponseDecoder small =
+        new OpenLibraryResponseDecoder(jsonMapper, Set.of("title"), 3, DataSize.ofBytes(64));
+    String edition = "{\"notes\": \"" + "x".repeat(10_000) + "\", \"title\": \"Clean Code\"}";
+
+    assertThat(small.decodeEdition(chunks(edition.getBytes(StandardCharsets.UTF_8), 256)).block())
+        .isEqualTo("{\"title\":\"Clean Code\"}");
+  }
+
+  @Test
+  @DisplayName("Should return nothing for an empty body")
+  void shouldReturnNothingForEmptyBody() {
+    assertThat(cut.decodeEdition(Flux.empty()).block()).isNull();
+  }
+
+  private static Flux<DataBuffer> chunks(byte[] content, int chunkSize) {
+    List<DataBuffer> buffers = new ArrayList<>();
+    for (int offset = 0; offset < content.length; offset += chunkSize) {
+      buffers.add(
+          DefaultDataBufferFactory.sharedInstance.wrap(
+              Arrays.copyOfRange(content, offset, Math.min(content.length, offset + chunkSize))));
+    }
+    return Flux.fromIterable(buffers);
+  }
+}